@@ -0,0 +1,54 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Throughput of the Boing ball physics (BounceBall), parameterized by the
+// number of balls and of steps per call
+//========================================================================
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoingBenchmark {
+
+	static final double FRAME_TIME = 1.0 / 60.0;
+
+	@Param({"1", "1024"})
+	int balls;
+
+	@Param({"1", "1024"})
+	int steps;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		Boing.srand(1);
+		Boing.InitBalls(balls);
+	}
+
+	@Benchmark
+	public float bounce_ball()
+	{
+		for (int i = 0;  i < steps;  i++)
+			Boing.BounceBall(FRAME_TIME);
+
+		return Boing.ball_x[0] + Boing.ball_y[0];
+	}
+}
@@ -0,0 +1,77 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Throughput of the HeightMap generation, one circle at a time (update_map)
+// or from precomputed circle plans (build_map), parameterized by map size,
+// generation threads and the number of circles applied per call
+//========================================================================
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeightMapBenchmark {
+
+	@Param({"80", "1024", "4096"})
+	int size;
+
+	@Param({"1", "4"})
+	int threads;
+
+	@Param({"1", "20", "200"})
+	int circles;
+
+	float[] plans;
+
+	@Setup(Level.Trial)
+	public void setup_map()
+	{
+		HeightMap.set_map_size(size);
+		HeightMap.set_map_threads(threads);
+		plans = HeightMap.make_circle_plans(1, HeightMap.MAX_ITER);
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown()
+	{
+		HeightMap.set_map_threads(1);
+	}
+
+	@Setup(Level.Iteration)
+	public void setup()
+	{
+		HeightMap.init_map();
+	}
+
+	@Benchmark
+	public float[][] update_map()
+	{
+		HeightMap.update_map(circles);
+		return HeightMap.map_vertices;
+	}
+
+	@Benchmark
+	public float[][] build_map()
+	{
+		HeightMap.build_map(plans, circles);
+		return HeightMap.map_vertices;
+	}
+}
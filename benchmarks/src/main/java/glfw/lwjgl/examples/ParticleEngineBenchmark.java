@@ -0,0 +1,74 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Throughput of one Particles physics frame (ParticleEngine.advance) on a
+// fountain that has reached its steady state
+//========================================================================
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParticleEngineBenchmark {
+
+	static final float FRAME_TIME = 1.f / 60.f;
+
+	@Param({"3000", "30000", "300000"})
+	int particles;
+
+	@Param({"1", "4"})
+	int threads;
+
+	ForkJoinPool pool;
+	ParticleEngine engine;
+	double t;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		engine = new ParticleEngine(particles, new Random(1), pool);
+
+		// Run one full life span, so that every slot is in use
+		for (t = 0.0;  t < ParticleEngine.LIFE_SPAN; )
+		{
+			t += FRAME_TIME;
+			engine.advance(t, FRAME_TIME);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown()
+	{
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	@Benchmark
+	public ParticleStore advance()
+	{
+		t += FRAME_TIME;
+		engine.advance(t, FRAME_TIME);
+		return engine.store();
+	}
+}
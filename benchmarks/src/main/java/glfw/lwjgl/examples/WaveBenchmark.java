@@ -0,0 +1,74 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Throughput of the Wave propagation (calc_grid) and of the height
+// update of the vertices (adjust_grid), by grid size, solver threads and
+// number of propagation steps per frame (at 60 Hz and MAX_DELTA_T = 0.01 s
+// the example runs two of them)
+//========================================================================
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WaveBenchmark {
+
+	@Param({"50", "512", "2048"})
+	int size;
+
+	@Param({"1", "4"})
+	int threads;
+
+	@Param({"1", "2", "16"})
+	int steps;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		Wave.set_grid_size(size, size);
+		Wave.set_solver_threads(threads);
+		Wave.init_vertices();
+		Wave.init_grid();
+		Wave.dt = Wave.MAX_DELTA_T;
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown()
+	{
+		Wave.set_solver_threads(1);
+	}
+
+	@Benchmark
+	public double[] calc_grid()
+	{
+		for (int i = 0;  i < steps;  i++)
+			Wave.calc_grid();
+
+		return Wave.p;
+	}
+
+	@Benchmark
+	public Object adjust_grid()
+	{
+		Wave.adjust_grid();
+		return Wave.heightBuffer;
+	}
+}
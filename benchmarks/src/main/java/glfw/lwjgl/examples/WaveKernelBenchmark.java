@@ -0,0 +1,61 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Scalar versus Vector API Wave solver loops (one calc_grid step on a
+// single thread), by grid size
+//
+// The vector kernel is only present when the examples were installed with
+// the "vector" profile (mvn -Pvector install). Without it the "vector"
+// trials fail instead of measuring the scalar fallback.
+//========================================================================
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class WaveKernelBenchmark {
+
+	@Param({"scalar", "vector"})
+	String kernel;
+
+	@Param({"50", "512", "2048"})
+	int size;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		Wave.set_grid_size(size, size);
+		Wave.set_solver_threads(1);
+		Wave.set_kernel(kernel);
+		if (kernel.equals("vector") &&
+		    !Wave.kernel.getClass().getName().equals(Wave.VECTOR_KERNEL))
+			throw new IllegalStateException("Vector kernel not available, install the examples with -Pvector");
+		Wave.init_vertices();
+		Wave.init_grid();
+		Wave.dt = Wave.MAX_DELTA_T;
+	}
+
+	@Benchmark
+	public double[] calc_grid()
+	{
+		Wave.calc_grid();
+		return Wave.p;
+	}
+}
@@ -0,0 +1,103 @@
+package glfw.lwjgl.tests;
+
+//========================================================================
+// Throughput of the GLU helpers in Project that do not touch the GL
+// matrix stacks, parameterized by the number of points per call
+//========================================================================
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.BufferUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectBenchmark {
+
+	@Param({"1", "1024"})
+	int points;
+
+	float[] xyz;
+	final float[] v1 = new float[3], v2 = new float[3], result = new float[3];
+
+	final FloatBuffer model = BufferUtils.createFloatBuffer(16);
+	final FloatBuffer proj = BufferUtils.createFloatBuffer(16);
+	final IntBuffer viewport = BufferUtils.createIntBuffer(4);
+	final FloatBuffer pos = BufferUtils.createFloatBuffer(3);
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		Random random = new Random(1);
+
+		xyz = new float[3 * points];
+		for (int i = 0;  i < xyz.length;  i++)
+			xyz[i] = random.nextFloat() * 20.f - 10.f;
+
+		// Camera 20 units back, 65 degree perspective (column-major)
+		float f = (float) (1.0 / Math.tan(Math.toRadians(65.0) / 2.0));
+		float near = 1.f, far = 60.f;
+
+		model.put(new float[] {
+			1, 0, 0, 0,
+			0, 1, 0, 0,
+			0, 0, 1, 0,
+			0, 0, -20, 1 }).flip();
+		proj.put(new float[] {
+			f / (4.f / 3.f), 0, 0, 0,
+			0, f, 0, 0,
+			0, 0, (far + near) / (near - far), -1,
+			0, 0, 2 * far * near / (near - far), 0 }).flip();
+		viewport.put(new int[] { 0, 0, 640, 480 }).flip();
+	}
+
+	@Benchmark
+	public FloatBuffer gluProject()
+	{
+		for (int i = 0;  i < points;  i++)
+			Project.gluProject(xyz[3 * i], xyz[3 * i + 1], xyz[3 * i + 2], model, proj, viewport, pos);
+
+		return pos;
+	}
+
+	@Benchmark
+	public FloatBuffer gluUnProject()
+	{
+		for (int i = 0;  i < points;  i++)
+			Project.gluUnProject(xyz[3 * i] * 32.f + 320.f, xyz[3 * i + 1] * 24.f + 240.f, 0.5f,
+			                     model, proj, viewport, pos);
+
+		return pos;
+	}
+
+	@Benchmark
+	public float[] normalize_cross()
+	{
+		for (int i = 0;  i < points;  i++)
+		{
+			System.arraycopy(xyz, 3 * i, v1, 0, 3);
+			System.arraycopy(xyz, 3 * ((i + 1) % points), v2, 0, 3);
+			Project.cross(Project.normalize(v1), Project.normalize(v2), result);
+		}
+
+		return result;
+	}
+}
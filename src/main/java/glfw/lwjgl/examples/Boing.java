@@ -31,6 +31,20 @@ package glfw.lwjgl.examples;
 
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL33.*;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.lwjgl.BufferUtils;
 
 import org.lwjgl.glfw.GLFWCursorPosCallback;
 import org.lwjgl.glfw.GLFWFramebufferSizeCallback;
@@ -60,33 +74,90 @@ final class Boing extends TestCommon{
 	/* Animation speed (50.0 mimics the original GLUT demo speed) */;
 	private static final float ANIMATION_SPEED = 50.f
 
-	/* Maximum allowed delta time per physics iteration */;
+	/* Maximum allowed delta time per physics iteration, used as the fixed step */;
 	private static final float MAX_DELTA_T = 0.02f;
 
+	/* Physics iterations allowed per frame before time is dropped */
+	private static final int MAX_STEPS_PER_FRAME = 10;
+
+	/* Facets of the ball: bands of longitude, and facets around each band */
+	private static final int BALL_BANDS = (int) (180 / STEP_LONGITUDE);
+	private static final int BALL_BAND_FACETS = (int) (360 / STEP_LATITUDE);
+
+	/* Longitude steps in a full turn, for the sine table */
+	private static final int BALL_LONGITUDE_RES = (int) (360 / STEP_LONGITUDE);
+
+	/* Floats per ball vertex: position, normal and color */
+	private static final int BALL_VERTEX_FLOATS = 9;
+
+	/* Most balls in the stress mode */
+	private static final int MAX_BALLS = 1 << 20;
+
 	/* Draw ball, or its shadow */
 	private static final int DRAW_BALL = 0,
 					DRAW_BALL_SHADOW   = 1;
 	
-	/* Random number generator */
-	private static final int RAND_MAX = 4096;
-	
 	private static boolean BOING_DEBUG = false;
 	
 	/* Global vars */
 	static int width, height;
-	static float deg_rot_y       = 0.f;
-	static float deg_rot_y_inc   = 2.f;
 	static boolean override_pos  = false;
 	static float cursor_x        = 0.f;
 	static float cursor_y        = 0.f;
-	static float ball_x          = -RADIUS;
-	static float ball_y          = -RADIUS;
-	static float ball_x_inc      = 1.f;
-	static float ball_y_inc      = 2.f;
 	static int drawBallHow;
 	static double  t;
 	static double  t_old = 0.f;
 	static double  dt;
+
+	/* State of the balls, one entry per ball (set up by InitBalls()). Ball 0
+	 * is the original one, and the one the mouse moves. */
+	static int ball_count = 1;
+	static float[] ball_x, ball_y;
+	static float[] ball_x_inc, ball_y_inc;
+	static float[] deg_rot_y, deg_rot_y_inc;
+
+	/* Ball state before the last physics step, and the interpolated state
+	 * that is drawn */
+	static float[] prev_ball_x, prev_ball_y, prev_deg_rot_y;
+	static float[] draw_ball_x, draw_ball_y, draw_deg_rot_y;
+
+	/* Ball mesh, built once by MakeBoingBall() */
+	static int ball_vbo, ball_ibo;
+	static int ball_index_count;
+
+	/* Instanced drawing of the balls (see MakeBallInstances()), 0 to draw
+	 * them one at a time */
+	static int ball_program;
+	static final int BALL_INSTANCE_ATTRIB = 1;
+	static int uloc_ball_offset;
+	static int instance_vbo;
+	static FloatBuffer instance_buf;
+
+	static final String ball_vertex_shader_text =
+	"#version 120\n"+
+	"uniform vec3 offset;\n"+
+	"attribute vec3 ball;\n"+
+	"\n"+
+	"void main()\n"+
+	"{\n"+
+	"    /* Spin by ball.z degrees around Y, then tilt by -20 around Z */\n"+
+	"    float spin = radians(ball.z), tilt = radians(-20.0);\n"+
+	"    vec3 p = vec3(cos(spin) * gl_Vertex.x + sin(spin) * gl_Vertex.z,\n"+
+	"                  gl_Vertex.y,\n"+
+	"                  cos(spin) * gl_Vertex.z - sin(spin) * gl_Vertex.x);\n"+
+	"    p.xy = vec2(cos(tilt) * p.x - sin(tilt) * p.y,\n"+
+	"                sin(tilt) * p.x + cos(tilt) * p.y);\n"+
+	"    p += vec3(ball.xy, 0.0) + offset;\n"+
+	"    gl_Position = gl_ModelViewProjectionMatrix * vec4(p, 1.0);\n"+
+	"    gl_FrontColor = gl_Color;\n"+
+	"}\n";
+
+	static final String ball_fragment_shader_text =
+	"#version 120\n"+
+	"void main()\n"+
+	"{\n"+
+	"    gl_FragColor = gl_Color;\n"+
+	"}\n";
 	
 	/*****************************************************************************
 	 * Truncate a degree.
@@ -178,6 +249,8 @@ final class Boing extends TestCommon{
 	   glClearColor( 0.55f, 0.55f, 0.55f, 0.f );
 
 	   glShadeModel( GL_FLAT );
+
+	   MakeBoingBall();
 	}
 
 
@@ -189,14 +262,25 @@ final class Boing extends TestCommon{
 	   glClear( GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT );
 	   glPushMatrix();
 
+	   if ( ball_program != 0 )
+	      UpdateBallInstances();
+
 	   drawBallHow = DRAW_BALL_SHADOW;
 	   DrawBoingBall();
 
 	   DrawGrid();
 
+	  /*
+	   * With more than one ball, let the closest one win where they overlap.
+	   */
+	   if ( ball_count > 1 )
+	      glEnable( GL_DEPTH_TEST );
+
 	   drawBallHow = DRAW_BALL;
 	   DrawBoingBall();
 
+	   glDisable( GL_DEPTH_TEST );
+
 	   glPopMatrix();
 	   glFlush();
 	}
@@ -233,8 +317,8 @@ final class Boing extends TestCommon{
 
 	static void set_ball_pos ( float x, float y )
 	{
-	   ball_x = (width / 2) - x;
-	   ball_y = y - (height / 2);
+	   ball_x[0] = (width / 2) - x;
+	   ball_y[0] = y - (height / 2);
 	}
 
 	static void mouse_button_callback( long window, int button, int action, int mods )
@@ -263,169 +347,405 @@ final class Boing extends TestCommon{
 	}
 
 	/*****************************************************************************
-	 * Draw the Boing ball.
-	 *
-	 * The Boing ball is sphere in which each facet is a rectangle.
-	 * Facet colors alternate between red and white.
-	 * The ball is built by stacking latitudinal circles.  Each circle is composed
-	 * of a widely-separated set of points, so that each facet is noticably large.
+	 * Draw the Boing balls (see MakeBoingBall()).
 	 *****************************************************************************/
 	static void DrawBoingBall( )
 	{
-	   float lon_deg;     /* degree of longitude */
-	   double dt_total, dt2;
-
-	   glPushMatrix();
-	   glMatrixMode( GL_MODELVIEW );
+	   int b;
 
 	  /*
-	   * Another relative Z translation to separate objects.
+	   * Set OpenGL state for Boing ball.
 	   */
-	   glTranslatef( 0.0f, 0.0f, DIST_BALL );
-
-	   /* Update ball position and rotation (iterate if necessary) */
-	   dt_total = dt;
-	   while( dt_total > 0.0 )
-	   {
-	       dt2 = dt_total > MAX_DELTA_T ? MAX_DELTA_T : dt_total;
-	       dt_total -= dt2;
-	       BounceBall( dt2 );
-	       deg_rot_y = TruncateDeg( deg_rot_y + deg_rot_y_inc*((float)dt2*ANIMATION_SPEED) );
-	   }
-
-	   /* Set ball position */
-	   glTranslatef( ball_x, ball_y, 0.0f );
+	   glCullFace( GL_FRONT );
+	   glEnable( GL_CULL_FACE );
+	   glEnable( GL_NORMALIZE );
 
 	  /*
-	   * Offset the shadow.
+	   * The shadow is the same mesh in a single gray.
 	   */
 	   if ( drawBallHow == DRAW_BALL_SHADOW )
 	   {
-	      glTranslatef( SHADOW_OFFSET_X,
-	                    SHADOW_OFFSET_Y,
-	                    SHADOW_OFFSET_Z );
+	      glDisableClientState( GL_COLOR_ARRAY );
+	      glColor3f( 0.35f, 0.35f, 0.35f );
 	   }
+	   else
+	      glEnableClientState( GL_COLOR_ARRAY );
 
 	  /*
-	   * Tilt the ball.
-	   */
-	   glRotatef( -20.0f, 0.0f, 0.0f, 1.0f );
-
-	  /*
-	   * Continually rotate ball around Y axis.
+	   * All the balls in one call.
 	   */
-	   glRotatef( deg_rot_y, 0.0f, 1.0f, 0.0f );
+	   if ( ball_program != 0 )
+	   {
+	      glUseProgram( ball_program );
+	      if ( drawBallHow == DRAW_BALL_SHADOW )
+	         glUniform3f( uloc_ball_offset, SHADOW_OFFSET_X,
+	                                        SHADOW_OFFSET_Y,
+	                                        SHADOW_OFFSET_Z + DIST_BALL );
+	      else
+	         glUniform3f( uloc_ball_offset, 0.0f, 0.0f, DIST_BALL );
 
-	  /*
-	   * Set OpenGL state for Boing ball.
-	   */
-	   glCullFace( GL_FRONT );
-	   glEnable( GL_CULL_FACE );
-	   glEnable( GL_NORMALIZE );
+	      glDrawElementsInstanced( GL_TRIANGLES, ball_index_count, GL_UNSIGNED_SHORT, 0, ball_count );
+	      glUseProgram( 0 );
+	      return;
+	   }
 
-	  /*
-	   * Build a faceted latitude slice of the Boing ball,
-	   * stepping same-sized vertical bands of the sphere.
-	   */
-	   for ( lon_deg = 0;
-	         lon_deg < 180;
-	         lon_deg += STEP_LONGITUDE )
+	   for ( b = 0; b < ball_count; b++ )
 	   {
+	      glPushMatrix();
+	      glMatrixMode( GL_MODELVIEW );
+
 	     /*
-	      * Draw a latitude circle at this longitude.
+	      * Another relative Z translation to separate objects.
 	      */
-	      DrawBoingBallBand( lon_deg,
-	                         lon_deg + STEP_LONGITUDE );
-	   }
+	      glTranslatef( 0.0f, 0.0f, DIST_BALL );
 
-	   glPopMatrix();
+	      /* Set ball position */
+	      glTranslatef( draw_ball_x[b], draw_ball_y[b], 0.0f );
+
+	     /*
+	      * Offset the shadow.
+	      */
+	      if ( drawBallHow == DRAW_BALL_SHADOW )
+	      {
+	         glTranslatef( SHADOW_OFFSET_X,
+	                       SHADOW_OFFSET_Y,
+	                       SHADOW_OFFSET_Z );
+	      }
+
+	     /*
+	      * Tilt the ball.
+	      */
+	      glRotatef( -20.0f, 0.0f, 0.0f, 1.0f );
+
+	     /*
+	      * Continually rotate ball around Y axis.
+	      */
+	      glRotatef( draw_deg_rot_y[b], 0.0f, 1.0f, 0.0f );
+
+	      glDrawElements( GL_TRIANGLES, ball_index_count, GL_UNSIGNED_SHORT, 0 );
+
+	      glPopMatrix();
+	   }
 
 	   return;
 	}
 
 
 	/*****************************************************************************
-	 * Bounce the ball.
+	 * Set up the instanced drawing of the balls: a shader applies the
+	 * position and rotation of each ball, read from a per-instance attribute
+	 * array, in place of the matrix calls of DrawBoingBall(). Needs OpenGL
+	 * 3.3; returns false (and the balls are drawn one at a time) otherwise.
 	 *****************************************************************************/
-	static void BounceBall( double delta_t )
+	static boolean MakeBallInstances( )
 	{
-	   float sign;
-	   float deg;
+	   int attrloc;
 
-	   if ( override_pos )
-	     return;
+	   if ( !GL.getCapabilities().OpenGL33 )
+	      return false;
+
+	   ball_program = Shaders.make_shader_program( ball_vertex_shader_text,
+	                                               ball_fragment_shader_text );
+	   if ( ball_program == 0 )
+	      return false;
 
-	   /* Bounce on walls */
-	   if ( ball_x >  (BOUNCE_WIDTH/2 + WALL_R_OFFSET ) )
+	  /*
+	   * Keep the instance attribute off location 0, which some drivers alias
+	   * with gl_Vertex; the new location takes effect when relinking.
+	   */
+	   attrloc = BALL_INSTANCE_ATTRIB;
+	   glBindAttribLocation( ball_program, attrloc, "ball" );
+	   glLinkProgram( ball_program );
+	   if ( glGetProgrami( ball_program, GL_LINK_STATUS ) != GL_TRUE )
 	   {
-	      ball_x_inc = -0.5f - 0.75f * (float)rand() / (float)RAND_MAX;
-	      deg_rot_y_inc = -deg_rot_y_inc;
+	      glDeleteProgram( ball_program );
+	      ball_program = 0;
+	      return false;
 	   }
-	   if ( ball_x < -(BOUNCE_HEIGHT/2 + WALL_L_OFFSET) )
+
+	   uloc_ball_offset = glGetUniformLocation( ball_program, "offset" );
+
+	   instance_buf = BufferUtils.createFloatBuffer( 3 * ball_count );
+	   instance_vbo = glGenBuffers();
+	   glBindBuffer( GL_ARRAY_BUFFER, instance_vbo );
+	   glBufferData( GL_ARRAY_BUFFER, 4L * instance_buf.capacity(), GL_STREAM_DRAW );
+	   glVertexAttribPointer( attrloc, 3, GL_FLOAT, false, 0, 0 );
+	   glVertexAttribDivisor( attrloc, 1 );
+	   glEnableVertexAttribArray( attrloc );
+
+	   return true;
+	}
+
+
+	/*****************************************************************************
+	 * Upload the position and rotation of every ball for this frame.
+	 *****************************************************************************/
+	static void UpdateBallInstances( )
+	{
+	   int b;
+
+	   instance_buf.clear();
+	   for ( b = 0; b < ball_count; b++ )
+	      instance_buf.put( draw_ball_x[b] ).put( draw_ball_y[b] ).put( draw_deg_rot_y[b] );
+	   instance_buf.flip();
+
+	  /*
+	   * Orphan the last frame's data so the upload doesn't wait for it.
+	   */
+	   glBindBuffer( GL_ARRAY_BUFFER, instance_vbo );
+	   glBufferData( GL_ARRAY_BUFFER, 4L * instance_buf.capacity(), GL_STREAM_DRAW );
+	   glBufferSubData( GL_ARRAY_BUFFER, 0, instance_buf );
+	}
+
+
+	/*****************************************************************************
+	 * Set up the given number of balls. The first one starts like the ball
+	 * of the original demo, the others at random places and headings drawn
+	 * with rand(), so that srand() makes them repeatable.
+	 *****************************************************************************/
+	static void InitBalls( int count )
+	{
+	   int b;
+
+	   ball_count = count;
+	   ball_x = new float[count];
+	   ball_y = new float[count];
+	   ball_x_inc = new float[count];
+	   ball_y_inc = new float[count];
+	   deg_rot_y = new float[count];
+	   deg_rot_y_inc = new float[count];
+	   prev_ball_x = new float[count];
+	   prev_ball_y = new float[count];
+	   prev_deg_rot_y = new float[count];
+	   draw_ball_x = new float[count];
+	   draw_ball_y = new float[count];
+	   draw_deg_rot_y = new float[count];
+
+	   ball_x[0] = -RADIUS;
+	   ball_y[0] = -RADIUS;
+	   ball_x_inc[0] = 1.f;
+	   ball_y_inc[0] = 2.f;
+	   deg_rot_y[0] = 0.f;
+	   deg_rot_y_inc[0] = 2.f;
+
+	   for ( b = 1; b < count; b++ )
 	   {
-	      ball_x_inc =  0.5f + 0.75f * (float)rand() / (float)RAND_MAX;
-	      deg_rot_y_inc = -deg_rot_y_inc;
+	      ball_x[b] = BOUNCE_WIDTH * ((float)rand() / (float)RAND_MAX - 0.5f);
+	      ball_y[b] = BOUNCE_HEIGHT * ((float)rand() / (float)RAND_MAX - 0.5f);
+	      ball_x_inc[b] = 0.5f + 0.75f * (float)rand() / (float)RAND_MAX;
+	      ball_y_inc[b] = 2.f;
+	      deg_rot_y[b] = 360.f * (float)rand() / (float)RAND_MAX;
+	      deg_rot_y_inc[b] = 2.f;
+	      if ( rand() < RAND_MAX / 2 )
+	      {
+	         ball_x_inc[b] = -ball_x_inc[b];
+	         deg_rot_y_inc[b] = -deg_rot_y_inc[b];
+	      }
 	   }
+	}
+
+
+	/*****************************************************************************
+	 * Advance the ball positions and rotations by one physics step.
+	 *****************************************************************************/
+	static void StepBall( double delta_t )
+	{
+	   float rot_step = (float)delta_t*ANIMATION_SPEED;
+	   int b;
+
+	   System.arraycopy( ball_x, 0, prev_ball_x, 0, ball_count );
+	   System.arraycopy( ball_y, 0, prev_ball_y, 0, ball_count );
+	   System.arraycopy( deg_rot_y, 0, prev_deg_rot_y, 0, ball_count );
+
+	   BounceBall( delta_t );
+	   for ( b = 0; b < ball_count; b++ )
+	      deg_rot_y[b] = TruncateDeg( deg_rot_y[b] + deg_rot_y_inc[b]*rot_step );
+	}
+
+	/*****************************************************************************
+	 * Compute the state to draw, alpha of a step after the previous state.
+	 *****************************************************************************/
+	static void InterpolateBall( float alpha )
+	{
+	   float deg_delta;
+	   int b;
 
-	   /* Bounce on floor / roof */
-	   if ( ball_y >  BOUNCE_HEIGHT/2      )
+	   for ( b = 0; b < ball_count; b++ )
 	   {
-	      ball_y_inc = -0.75f - 1.f * (float)rand() / (float)RAND_MAX;
+	      draw_ball_x[b] = prev_ball_x[b] + (ball_x[b] - prev_ball_x[b]) * alpha;
+	      draw_ball_y[b] = prev_ball_y[b] + (ball_y[b] - prev_ball_y[b]) * alpha;
+
+	      /* The rotation may have wrapped around at 360' */
+	      deg_delta = deg_rot_y[b] - prev_deg_rot_y[b];
+	      if ( deg_delta < -180.f )
+	         deg_delta += 360.f;
+	      draw_deg_rot_y[b] = prev_deg_rot_y[b] + deg_delta * alpha;
 	   }
-	   if ( ball_y < -BOUNCE_HEIGHT/2*0.85 )
+	}
+
+	/*****************************************************************************
+	 * Bounce the balls, all in one pass over the state arrays.
+	 *****************************************************************************/
+	static void BounceBall( double delta_t )
+	{
+	   float sign;
+	   float deg;
+	   float step = (float)delta_t*ANIMATION_SPEED;
+	   int b;
+
+	   /* The mouse holds the first ball */
+	   for ( b = override_pos ? 1 : 0; b < ball_count; b++ )
 	   {
-	      ball_y_inc =  0.75f + 1.f * (float)rand() / (float)RAND_MAX;
+	      /* Bounce on walls */
+	      if ( ball_x[b] >  (BOUNCE_WIDTH/2 + WALL_R_OFFSET ) )
+	      {
+	         ball_x_inc[b] = -0.5f - 0.75f * (float)rand() / (float)RAND_MAX;
+	         deg_rot_y_inc[b] = -deg_rot_y_inc[b];
+	      }
+	      if ( ball_x[b] < -(BOUNCE_HEIGHT/2 + WALL_L_OFFSET) )
+	      {
+	         ball_x_inc[b] =  0.5f + 0.75f * (float)rand() / (float)RAND_MAX;
+	         deg_rot_y_inc[b] = -deg_rot_y_inc[b];
+	      }
+
+	      /* Bounce on floor / roof */
+	      if ( ball_y[b] >  BOUNCE_HEIGHT/2      )
+	      {
+	         ball_y_inc[b] = -0.75f - 1.f * (float)rand() / (float)RAND_MAX;
+	      }
+	      if ( ball_y[b] < -BOUNCE_HEIGHT/2*0.85 )
+	      {
+	         ball_y_inc[b] =  0.75f + 1.f * (float)rand() / (float)RAND_MAX;
+	      }
+
+	      /* Update ball position */
+	      ball_x[b] += ball_x_inc[b] * step;
+	      ball_y[b] += ball_y_inc[b] * step;
+
+	     /*
+	      * Simulate the effects of gravity on Y movement.
+	      */
+	      if ( ball_y_inc[b] < 0 ) sign = -1; else sign = 1;
+
+	      deg = (ball_y[b] + BOUNCE_HEIGHT/2) * 90 / BOUNCE_HEIGHT;
+	      if ( deg > 80 ) deg = 80;
+	      if ( deg < 10 ) deg = 10;
+
+	      ball_y_inc[b] = sign * 4.f * (float) sin_deg( deg );
 	   }
+	}
 
-	   /* Update ball position */
-	   ball_x += ball_x_inc * ((float)delta_t*ANIMATION_SPEED);
-	   ball_y += ball_y_inc * ((float)delta_t*ANIMATION_SPEED);
+
+	/*****************************************************************************
+	 * Build the Boing ball mesh in buffer objects, and set up the vertex,
+	 * normal and color arrays to draw it. They stay bound for the rest of
+	 * the run (the grid is drawn in immediate mode).
+	 *
+	 * The Boing ball is sphere in which each facet is a rectangle.
+	 * Facet colors alternate between red and white.
+	 * The ball is built by stacking latitudinal circles.  Each circle is composed
+	 * of a widely-separated set of points, so that each facet is noticably large.
+	 *
+	 * Each facet has its own four vertices, all with the facet normal and
+	 * color, so that flat shading gives the same result as the polygons of
+	 * the original demo. It is drawn as two triangles.
+	 *****************************************************************************/
+	static void MakeBoingBall( )
+	{
+	   final int stride = BALL_VERTEX_FLOATS * 4;
+	   final int facets = BALL_BANDS * BALL_BAND_FACETS;
+	   FloatBuffer vertices = BufferUtils.createFloatBuffer( facets * 4 * BALL_VERTEX_FLOATS );
+	   ShortBuffer indices = BufferUtils.createShortBuffer( facets * 6 );
+	   int band;
 
 	  /*
-	   * Simulate the effects of gravity on Y movement.
+	   * Build a faceted latitude slice of the Boing ball,
+	   * stepping same-sized vertical bands of the sphere.
 	   */
-	   if ( ball_y_inc < 0 ) sign = -1; else sign = 1;
+	   for ( band = 0; band < BALL_BANDS; band++ )
+	   {
+	     /*
+	      * Add a latitude circle at this longitude.
+	      */
+	      MakeBoingBallBand( band, vertices, indices );
+	   }
 
-	   deg = (ball_y + BOUNCE_HEIGHT/2) * 90 / BOUNCE_HEIGHT;
-	   if ( deg > 80 ) deg = 80;
-	   if ( deg < 10 ) deg = 10;
+	   vertices.flip();
+	   indices.flip();
+	   ball_index_count = indices.remaining();
 
-	   ball_y_inc = sign * 4.f * (float) sin_deg( deg );
+	   ball_vbo = glGenBuffers();
+	   glBindBuffer( GL_ARRAY_BUFFER, ball_vbo );
+	   glBufferData( GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW );
+
+	   ball_ibo = glGenBuffers();
+	   glBindBuffer( GL_ELEMENT_ARRAY_BUFFER, ball_ibo );
+	   glBufferData( GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW );
+
+	   glVertexPointer( 3, GL_FLOAT, stride, 0 );
+	   glNormalPointer( GL_FLOAT, stride, 3 * 4 );
+	   glColorPointer( 3, GL_FLOAT, stride, 6 * 4 );
+	   glEnableClientState( GL_VERTEX_ARRAY );
+	   glEnableClientState( GL_NORMAL_ARRAY );
+	}
+
+	/*****************************************************************************
+	 * Add a vertex of the ball mesh.
+	 *****************************************************************************/
+	static void PutBallVertex( FloatBuffer vertices, Vertex vert, Vertex norm,
+	                           float r, float g, float b )
+	{
+	   vertices.put( vert.x ).put( vert.y ).put( vert.z );
+	   vertices.put( norm.x ).put( norm.y ).put( norm.z );
+	   vertices.put( r ).put( g ).put( b );
 	}
 
 
 	 static boolean colorToggle = false;
 	/*****************************************************************************
-	 * Draw a faceted latitude band of the Boing ball.
+	 * Add a faceted latitude band of the Boing ball to the mesh.
+	 *
+	 * Parms:   band
+	 *          Index of the slice: its low and high longitudes are band and
+	 *          band + 1 times STEP_LONGITUDE.
 	 *
-	 * Parms:   long_lo, long_hi
-	 *          Low and high longitudes of slice, resp.
+	 *          vertices, indices
+	 *          Buffers the facets are appended to.
 	 *****************************************************************************/
-	static void DrawBoingBallBand( float long_lo,
-	                        float long_hi )
+	static void MakeBoingBallBand( int band,
+	                        FloatBuffer vertices,
+	                        ShortBuffer indices )
 	{
+	   TrigTable lon = TrigTable.of( BALL_LONGITUDE_RES );
+	   TrigTable lat = TrigTable.of( BALL_BAND_FACETS );
 	   Vertex vert_ne = new Vertex();  /* "ne" means south-east, so on */
 	   Vertex vert_nw = new Vertex();
 	   Vertex vert_sw = new Vertex();
 	   Vertex vert_se = new Vertex();
 	   Vertex vert_norm = new Vertex();
-	   float  lat_deg;
+	   int    lat_step;
+	   float  r, g, b;
+	   short  first;
 
 	  /*
 	   * Iterate thru the points of a latitude circle.
 	   * A latitude circle is a 2D set of X,Z points.
 	   */
-	   for ( lat_deg = 0;
-	         lat_deg <= (360 - STEP_LATITUDE);
-	         lat_deg += STEP_LATITUDE )
+	   for ( lat_step = 0;
+	         lat_step < BALL_BAND_FACETS;
+	         lat_step++ )
 	   {
 	     /*
 	      * Color this polygon with red or white.
 	      */
 	      if ( colorToggle )
-	         glColor3f( 0.8f, 0.1f, 0.1f );
+	      {
+	         r = 0.8f;  g = 0.1f;  b = 0.1f;
+	      }
 	      else
-	         glColor3f( 0.95f, 0.95f, 0.95f );
+	      {
+	         r = 0.95f; g = 0.95f; b = 0.95f;
+	      }
 //	#if 0
 //	      if ( lat_deg >= 180 )
 //	         if ( colorToggle )
@@ -435,53 +755,47 @@ final class Boing extends TestCommon{
 //	#endif
 	      colorToggle = ! colorToggle;
 
-	     /*
-	      * Change color if drawing shadow.
-	      */
-	      if ( drawBallHow == DRAW_BALL_SHADOW )
-	         glColor3f( 0.35f, 0.35f, 0.35f );
-
 	     /*
 	      * Assign each Y.
 	      */
-	      vert_ne.y = vert_nw.y = (float) cos_deg(long_hi) * RADIUS;
-	      vert_sw.y = vert_se.y = (float) cos_deg(long_lo) * RADIUS;
+	      vert_ne.y = vert_nw.y = (float) lon.cos( band + 1 ) * RADIUS;
+	      vert_sw.y = vert_se.y = (float) lon.cos( band     ) * RADIUS;
 
 	     /*
 	      * Assign each X,Z with sin,cos values scaled by latitude radius indexed by longitude.
 	      * Eg, long=0 and long=180 are at the poles, so zero scale is sin(longitude),
 	      * while long=90 (sin(90)=1) is at equator.
 	      */
-	      vert_ne.x = (float) cos_deg( lat_deg                 ) * (RADIUS * (float) sin_deg( long_lo + STEP_LONGITUDE ));
-	      vert_se.x = (float) cos_deg( lat_deg                 ) * (RADIUS * (float) sin_deg( long_lo                  ));
-	      vert_nw.x = (float) cos_deg( lat_deg + STEP_LATITUDE ) * (RADIUS * (float) sin_deg( long_lo + STEP_LONGITUDE ));
-	      vert_sw.x = (float) cos_deg( lat_deg + STEP_LATITUDE ) * (RADIUS * (float) sin_deg( long_lo                  ));
+	      vert_ne.x = (float) lat.cos( lat_step     ) * (RADIUS * (float) lon.sin( band + 1 ));
+	      vert_se.x = (float) lat.cos( lat_step     ) * (RADIUS * (float) lon.sin( band     ));
+	      vert_nw.x = (float) lat.cos( lat_step + 1 ) * (RADIUS * (float) lon.sin( band + 1 ));
+	      vert_sw.x = (float) lat.cos( lat_step + 1 ) * (RADIUS * (float) lon.sin( band     ));
 
-	      vert_ne.z = (float) sin_deg( lat_deg                 ) * (RADIUS * (float) sin_deg( long_lo + STEP_LONGITUDE ));
-	      vert_se.z = (float) sin_deg( lat_deg                 ) * (RADIUS * (float) sin_deg( long_lo                  ));
-	      vert_nw.z = (float) sin_deg( lat_deg + STEP_LATITUDE ) * (RADIUS * (float) sin_deg( long_lo + STEP_LONGITUDE ));
-	      vert_sw.z = (float) sin_deg( lat_deg + STEP_LATITUDE ) * (RADIUS * (float) sin_deg( long_lo                  ));
+	      vert_ne.z = (float) lat.sin( lat_step     ) * (RADIUS * (float) lon.sin( band + 1 ));
+	      vert_se.z = (float) lat.sin( lat_step     ) * (RADIUS * (float) lon.sin( band     ));
+	      vert_nw.z = (float) lat.sin( lat_step + 1 ) * (RADIUS * (float) lon.sin( band + 1 ));
+	      vert_sw.z = (float) lat.sin( lat_step + 1 ) * (RADIUS * (float) lon.sin( band     ));
 
 	     /*
-	      * Draw the facet.
+	      * Add the facet, as the triangles ne-nw-sw and ne-sw-se.
 	      */
-	      glBegin( GL_POLYGON );
-
 	      crossProduct( vert_ne, vert_nw, vert_sw, vert_norm );
-	      glNormal3f( vert_norm.x, vert_norm.y, vert_norm.z );
 
-	      glVertex3f( vert_ne.x, vert_ne.y, vert_ne.z );
-	      glVertex3f( vert_nw.x, vert_nw.y, vert_nw.z );
-	      glVertex3f( vert_sw.x, vert_sw.y, vert_sw.z );
-	      glVertex3f( vert_se.x, vert_se.y, vert_se.z );
+	      first = (short) (vertices.position() / BALL_VERTEX_FLOATS);
+	      PutBallVertex( vertices, vert_ne, vert_norm, r, g, b );
+	      PutBallVertex( vertices, vert_nw, vert_norm, r, g, b );
+	      PutBallVertex( vertices, vert_sw, vert_norm, r, g, b );
+	      PutBallVertex( vertices, vert_se, vert_norm, r, g, b );
 
-	      glEnd();
+	      indices.put( first ).put( (short) (first + 1) ).put( (short) (first + 2) );
+	      indices.put( first ).put( (short) (first + 2) ).put( (short) (first + 3) );
 
 //	#if BOING_DEBUG
 	if(BOING_DEBUG)
 	{
 	      printf( "----------------------------------------------------------- \n" );
-	      printf( "lat = %f  long_lo = %f  long_hi = %f \n", lat_deg, long_lo, long_hi );
+	      printf( "lat = %f  long_lo = %f  long_hi = %f \n", lat_step * STEP_LATITUDE,
+	              band * STEP_LONGITUDE, (band + 1) * STEP_LONGITUDE );
 	      printf( "vert_ne  x = %.8f  y = %.8f  z = %.8f \n", vert_ne.x, vert_ne.y, vert_ne.z );
 	      printf( "vert_nw  x = %.8f  y = %.8f  z = %.8f \n", vert_nw.x, vert_nw.y, vert_nw.z );
 	      printf( "vert_se  x = %.8f  y = %.8f  z = %.8f \n", vert_se.x, vert_se.y, vert_se.z );
@@ -584,6 +898,23 @@ final class Boing extends TestCommon{
 	}
 
 
+	/*****************************************************************************
+	 * Print usage information.
+	 *****************************************************************************/
+	static void usage()
+	{
+	   printf( "Usage: boing [-h] [-f frames] [-n balls] [-r seed] [-s]\n" );
+	   printf( "Options:\n" );
+	   printf( " -f   Exit after drawing this many frames (default is to run until\n" );
+	   printf( "      the window is closed)\n" );
+	   printf( " -h   Display this help\n" );
+	   printf( " -n   Stress mode: bounce this many balls, without vsync, and print\n" );
+	   printf( "      the frame rate on exit (default is one ball, up to %d)\n", MAX_BALLS );
+	   printf( " -r   Seed the random numbers, for repeatable runs\n" );
+	   printf( " -s   Draw the balls one at a time instead of instanced\n" );
+	}
+
+
 	/*======================================================================*
 	 * main()
 	 *======================================================================*/
@@ -592,6 +923,51 @@ final class Boing extends TestCommon{
 	public static void main(String[] args)
 	{
 	   long window;
+	   int i, steps;
+	   int count = 1;
+	   boolean instanced = true;
+	   long frames = 0, max_frames = 0;
+	   double start;
+	   FixedTimestep timestep;
+
+	   try {
+			Options options = new Options();
+			options.addOption("f", true, "Number of frames");
+			options.addOption("h", "Display this help");
+			options.addOption("n", true, "Number of balls");
+			options.addOption("r", true, "Random seed");
+			options.addOption("s", "Draw one ball at a time");
+
+			CommandLineParser parser = new DefaultParser();
+			CommandLine cmd = parser.parse(options, args);
+
+			if(cmd.hasOption("h")) {
+				usage();
+				exit(EXIT_SUCCESS);
+			}
+			if(cmd.hasOption("f"))
+			{
+				max_frames = Long.parseLong(cmd.getOptionValue("f"));
+				if (max_frames < 1)
+					throw new IllegalArgumentException("Invalid number of frames: " + max_frames);
+			}
+			if(cmd.hasOption("n"))
+			{
+				count = Integer.parseInt(cmd.getOptionValue("n"));
+				if (count < 1 || count > MAX_BALLS)
+					throw new IllegalArgumentException("Invalid number of balls: " + count);
+			}
+			if(cmd.hasOption("r"))
+				srand(Long.parseLong(cmd.getOptionValue("r")));
+			if(cmd.hasOption("s"))
+				instanced = false;
+		} catch (ParseException | IllegalArgumentException e) {
+			fprintf("%s\n", e.getMessage());
+			usage();
+			exit(EXIT_FAILURE);
+		}
+
+	   InitBalls( count );
 
 	   /* Init GLFW */
 	   if( glfwInit() == 0 )
@@ -630,7 +1006,8 @@ final class Boing extends TestCommon{
 	   glfwMakeContextCurrent(window);
 //	   GLContext.createFromCurrent();
 	   GL.createCapabilities();
-	   glfwSwapInterval( 1 );
+	   /* The stress mode measures how fast the balls can be drawn */
+	   glfwSwapInterval( ball_count > 1 ? 0 : 1 );
 
 	   glfwGetFramebufferSize(window, x_buf, y_buf);
 	   width = x_buf.get(0); height = y_buf.get(0);
@@ -640,6 +1017,15 @@ final class Boing extends TestCommon{
 
 	   init();
 
+	   if ( ball_count > 1 && instanced && !MakeBallInstances() )
+	      printf( "Instancing needs OpenGL 3.3, drawing one ball at a time\n" );
+
+	   timestep = new FixedTimestep( MAX_DELTA_T, MAX_STEPS_PER_FRAME );
+	   System.arraycopy( ball_x, 0, prev_ball_x, 0, ball_count );
+	   System.arraycopy( ball_y, 0, prev_ball_y, 0, ball_count );
+	   System.arraycopy( deg_rot_y, 0, prev_deg_rot_y, 0, ball_count );
+	   start = glfwGetTime();
+
 	   /* Main loop */
 	   for (;;)
 	   {
@@ -648,8 +1034,15 @@ final class Boing extends TestCommon{
 	       dt = t - t_old;
 	       t_old = t;
 
+	       /* Update ball position and rotation in fixed steps */
+	       steps = timestep.advance( dt );
+	       for ( i = 0; i < steps; i++ )
+	           StepBall( timestep.step );
+	       InterpolateBall( (float) timestep.alpha() );
+
 	       /* Draw one frame */
 	       display();
+	       frames++;
 
 	       /* Swap buffers */
 	       glfwSwapBuffers(window);
@@ -658,6 +1051,19 @@ final class Boing extends TestCommon{
 	       /* Check if we are still running */
 	       if (glfwWindowShouldClose(window) != 0)
 	           break;
+	       if (max_frames > 0 && frames >= max_frames)
+	           break;
+	   }
+
+	   printf( "%d simulation steps, %.3f s of simulation time dropped\n",
+	           timestep.steps, timestep.dropped );
+
+	   if ( ball_count > 1 )
+	   {
+	      t = glfwGetTime() - start;
+	      printf( "%d balls %s: %d frames in %.1f s, %.1f frames/s, %.0f balls/s\n",
+	              ball_count, ball_program != 0 ? "instanced" : "one at a time",
+	              frames, t, frames / t, frames * ball_count / t );
 	   }
 
 	   glfwTerminate();
@@ -0,0 +1,64 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Fixed-timestep scheduler for the examples that animate a simulation
+//
+// Frame times are added to an accumulator, which is spent in whole steps
+// of a fixed length, so the simulation advances the same way at any frame
+// rate. What is left over (less than one step) gives the fraction by which
+// the drawn state should be interpolated from the state before the last
+// step towards the current one.
+//
+// A frame runs at most max_steps steps. If the simulation falls further
+// behind than that, for instance after a stall, the excess time is
+// dropped and counted instead of being caught up with even more work on
+// the next frames.
+//========================================================================
+
+final class FixedTimestep {
+
+	final double step;
+	final int max_steps;
+
+	double accumulator;
+
+	// Totals since creation
+	long steps;
+	double dropped;
+
+	FixedTimestep(double step, int max_steps)
+	{
+	    if (!(step > 0.0) || max_steps < 1)
+	        throw new IllegalArgumentException("Invalid time step: " + step + " x " + max_steps);
+
+	    this.step = step;
+	    this.max_steps = max_steps;
+	}
+
+	// Add the duration of a frame and return how many steps to run for it
+	int advance(double frame_time)
+	{
+	    int count;
+
+	    if (frame_time > 0.0)
+	        accumulator += frame_time;
+
+	    count = (int) (accumulator / step);
+	    accumulator -= count * step;
+
+	    if (count > max_steps)
+	    {
+	        dropped += (count - max_steps) * step;
+	        count = max_steps;
+	    }
+
+	    steps += count;
+	    return count;
+	}
+
+	// Interpolation factor between the previous and current state, in [0, 1)
+	double alpha()
+	{
+	    return accumulator / step;
+	}
+}
@@ -0,0 +1,230 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Gear wheel meshes in buffer objects
+//
+// Builds the same gear as Gears.gear() does in immediate mode, as
+// interleaved position/normal vertices and triangle indices, and draws it
+// from a vertex array object with a single call.
+//
+// gear() draws most of the wheel with flat shading, where each quad takes
+// the normal current at its last vertex. Here those quads get vertices of
+// their own, all with that normal, so the mesh is drawn with smooth
+// shading throughout and still lights the same. Only the inside cylinder,
+// which gear() shades smoothly, shares vertices between its quads.
+//========================================================================
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+
+final class GearMesh {
+
+	// Floats per vertex: position, normal
+	static final int VERTEX_FLOATS = 6;
+
+	final FloatBuffer vertices;
+	final IntBuffer indices;
+	final int index_count;
+
+	int vao, vbo, ibo;
+
+	// Normal given to the vertices added next
+	private float nx, ny, nz;
+
+	//========================================================================
+	// Build the mesh of a gear, with the parameters of Gears.gear()
+	//========================================================================
+
+	GearMesh(float inner_radius, float outer_radius, float width,
+	         int teeth, float tooth_depth)
+	{
+	    int i, first;
+	    float r0, r1, r2;
+	    float u, v, len;
+	    float front = width * 0.5f, back = -width * 0.5f;
+	    TrigTable trig = TrigTable.of(4 * teeth);
+
+	    r0 = inner_radius;
+	    r1 = outer_radius - tooth_depth / 2.f;
+	    r2 = outer_radius + tooth_depth / 2.f;
+
+	    // Front and back faces: 4 * teeth + 2 vertices each, sides of the
+	    // teeth: 4 * teeth each, outward faces: 16 * teeth, inside
+	    // cylinder: 2 * teeth + 2. Every quad is two triangles.
+	    vertices = BufferUtils.createFloatBuffer(VERTEX_FLOATS * (34 * teeth + 6));
+	    indices = BufferUtils.createIntBuffer(3 * 22 * teeth);
+
+	    /* front face */
+	    normal(0.f, 0.f, 1.f);
+	    first = vertex_count();
+	    for (i = 0; i <= teeth; i++) {
+	      vertex(r0, trig, 4 * i, front);
+	      vertex(r1, trig, 4 * i, front);
+	      if (i < teeth) {
+	        vertex(r0, trig, 4 * i, front);
+	        vertex(r1, trig, 4 * i + 3, front);
+	      }
+	    }
+	    quad_strip(first);
+
+	    /* front sides of teeth */
+	    for (i = 0; i < teeth; i++) {
+	      first = vertex_count();
+	      vertex(r1, trig, 4 * i, front);
+	      vertex(r2, trig, 4 * i + 1, front);
+	      vertex(r2, trig, 4 * i + 2, front);
+	      vertex(r1, trig, 4 * i + 3, front);
+	      quad(first);
+	    }
+
+	    /* back face */
+	    normal(0.0f, 0.0f, -1.0f);
+	    first = vertex_count();
+	    for (i = 0; i <= teeth; i++) {
+	      vertex(r1, trig, 4 * i, back);
+	      vertex(r0, trig, 4 * i, back);
+	      if (i < teeth) {
+	        vertex(r1, trig, 4 * i + 3, back);
+	        vertex(r0, trig, 4 * i, back);
+	      }
+	    }
+	    quad_strip(first);
+
+	    /* back sides of teeth */
+	    for (i = 0; i < teeth; i++) {
+	      first = vertex_count();
+	      vertex(r1, trig, 4 * i + 3, back);
+	      vertex(r2, trig, 4 * i + 2, back);
+	      vertex(r2, trig, 4 * i + 1, back);
+	      vertex(r1, trig, 4 * i, back);
+	      quad(first);
+	    }
+
+	    /* outward faces of teeth, each quad with the normal gear() has
+	     * current at its last vertex */
+	    for (i = 0; i < teeth; i++) {
+	      u = r2 * (float) trig.cos(4 * i + 1) - r1 * (float) trig.cos(4 * i);
+	      v = r2 * (float) trig.sin(4 * i + 1) - r1 * (float) trig.sin(4 * i);
+	      len = (float) Math.sqrt(u * u + v * v);
+	      normal(v / len, -u / len, 0);
+	      wall(r1, 4 * i, r2, 4 * i + 1, trig, front, back);
+
+	      normal((float) trig.cos(4 * i), (float) trig.sin(4 * i), 0.f);
+	      wall(r2, 4 * i + 1, r2, 4 * i + 2, trig, front, back);
+
+	      u = r1 * (float) trig.cos(4 * i + 3) - r2 * (float) trig.cos(4 * i + 2);
+	      v = r1 * (float) trig.sin(4 * i + 3) - r2 * (float) trig.sin(4 * i + 2);
+	      normal(v, -u, 0.f);
+	      wall(r2, 4 * i + 2, r1, 4 * i + 3, trig, front, back);
+
+	      normal((float) trig.cos(4 * i), (float) trig.sin(4 * i), 0.f);
+	      wall(r1, 4 * i + 3, r1, 4 * i + 4, trig, front, back);
+	    }
+
+	    /* inside radius cylinder */
+	    first = vertex_count();
+	    for (i = 0; i <= teeth; i++) {
+	      normal(-(float) trig.cos(4 * i), -(float) trig.sin(4 * i), 0.f);
+	      vertex(r0, trig, 4 * i, back);
+	      vertex(r0, trig, 4 * i, front);
+	    }
+	    quad_strip(first);
+
+	    vertices.flip();
+	    indices.flip();
+	    index_count = indices.remaining();
+	}
+
+	private int vertex_count()
+	{
+	    return vertices.position() / VERTEX_FLOATS;
+	}
+
+	private void normal(float x, float y, float z)
+	{
+	    nx = x;
+	    ny = y;
+	    nz = z;
+	}
+
+	// Add the vertex at radius r and the given step of the table, at z
+	private void vertex(float r, TrigTable trig, int step, float z)
+	{
+	    vertices.put(r * (float) trig.cos(step)).put(r * (float) trig.sin(step)).put(z);
+	    vertices.put(nx).put(ny).put(nz);
+	}
+
+	// Two triangles for the GL_QUADS quad of the four vertices from first
+	private void quad(int first)
+	{
+	    indices.put(first).put(first + 1).put(first + 2);
+	    indices.put(first).put(first + 2).put(first + 3);
+	}
+
+	// Triangles for the GL_QUAD_STRIP of the vertices from first to the
+	// last one added, with the same winding
+	private void quad_strip(int first)
+	{
+	    int k;
+
+	    for (k = first; k + 3 < vertex_count(); k += 2)
+	    {
+	        indices.put(k).put(k + 1).put(k + 2);
+	        indices.put(k + 2).put(k + 1).put(k + 3);
+	    }
+	}
+
+	// One quad of the outward faces, from the edge at radius ra and step a
+	// to the one at radius rb and step b, both across the whole width
+	private void wall(float ra, int a, float rb, int b, TrigTable trig, float front, float back)
+	{
+	    int first = vertex_count();
+
+	    vertex(ra, trig, a, front);
+	    vertex(ra, trig, a, back);
+	    vertex(rb, trig, b, front);
+	    vertex(rb, trig, b, back);
+	    quad_strip(first);
+	}
+
+	//========================================================================
+	// Upload the mesh and record its vertex and normal arrays in a vertex
+	// array object
+	//========================================================================
+
+	void make_buffers()
+	{
+	    final int stride = VERTEX_FLOATS * 4;
+
+	    vao = glGenVertexArrays();
+	    glBindVertexArray(vao);
+
+	    vbo = glGenBuffers();
+	    glBindBuffer(GL_ARRAY_BUFFER, vbo);
+	    glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+	    glVertexPointer(3, GL_FLOAT, stride, 0);
+	    glNormalPointer(GL_FLOAT, stride, 3 * 4);
+	    glEnableClientState(GL_VERTEX_ARRAY);
+	    glEnableClientState(GL_NORMAL_ARRAY);
+
+	    ibo = glGenBuffers();
+	    glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ibo);
+	    glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+
+	    glBindVertexArray(0);
+	    glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+
+	void draw()
+	{
+	    glBindVertexArray(vao);
+	    glDrawElements(GL_TRIANGLES, index_count, GL_UNSIGNED_INT, 0);
+	    glBindVertexArray(0);
+	}
+}
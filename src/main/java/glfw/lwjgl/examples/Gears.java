@@ -27,6 +27,11 @@ import static org.lwjgl.opengl.GL11.*;
 
 import java.nio.FloatBuffer;
 
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.GLFWFramebufferSizeCallback;
 import org.lwjgl.glfw.GLFWKeyCallback;
@@ -57,6 +62,14 @@ final class Gears extends TestCommon{
 	 */
 	static int autoexit = 0;
 
+	/* Draw the gears from display lists (set with -l) instead of buffer
+	 * objects, for comparison */
+	static boolean use_lists = false;
+
+	/* Turn vsync off, exit after autoexit seconds and print the frame rate
+	 * (set with -b) */
+	static boolean benchmark = false;
+
 	/**
 
 	  Draw a gear wheel.  You'll probably want to call this function when
@@ -75,14 +88,16 @@ final class Gears extends TestCommon{
 	{
 	  int i;
 	  float r0, r1, r2;
-	  float angle, da;
 	  float u, v, len;
+	  TrigTable trig;
 
 	  r0 = inner_radius;
 	  r1 = outer_radius - tooth_depth / 2.f;
 	  r2 = outer_radius + tooth_depth / 2.f;
 
-	  da = 2.f * (float) Math.PI / teeth / 4.f;
+	  /* Each tooth spans four steps: the two ends of its root on r1 and
+	   * the two corners of its top on r2 */
+	  trig = TrigTable.of(4 * teeth);
 
 	  glShadeModel(GL_FLAT);
 
@@ -91,26 +106,22 @@ final class Gears extends TestCommon{
 	  /* draw front face */
 	  glBegin(GL_QUAD_STRIP);
 	  for (i = 0; i <= teeth; i++) {
-	    angle = i * 2.f * (float) Math.PI / teeth;
-	    glVertex3f(r0 * (float) cos(angle), r0 * (float) sin(angle), width * 0.5f);
-	    glVertex3f(r1 * (float) cos(angle), r1 * (float) sin(angle), width * 0.5f);
+	    glVertex3f(r0 * (float) trig.cos(4 * i), r0 * (float) trig.sin(4 * i), width * 0.5f);
+	    glVertex3f(r1 * (float) trig.cos(4 * i), r1 * (float) trig.sin(4 * i), width * 0.5f);
 	    if (i < teeth) {
-	      glVertex3f(r0 * (float) cos(angle), r0 * (float) sin(angle), width * 0.5f);
-	      glVertex3f(r1 * (float) cos(angle + 3 * da), r1 * (float) sin(angle + 3 * da), width * 0.5f);
+	      glVertex3f(r0 * (float) trig.cos(4 * i), r0 * (float) trig.sin(4 * i), width * 0.5f);
+	      glVertex3f(r1 * (float) trig.cos(4 * i + 3), r1 * (float) trig.sin(4 * i + 3), width * 0.5f);
 	    }
 	  }
 	  glEnd();
 
 	  /* draw front sides of teeth */
 	  glBegin(GL_QUADS);
-	  da = 2.f * (float) Math.PI / teeth / 4.f;
 	  for (i = 0; i < teeth; i++) {
-	    angle = i * 2.f * (float) Math.PI / teeth;
-
-	    glVertex3f(r1 * (float) cos(angle), r1 * (float) sin(angle), width * 0.5f);
-	    glVertex3f(r2 * (float) cos(angle + da), r2 * (float) sin(angle + da), width * 0.5f);
-	    glVertex3f(r2 * (float) cos(angle + 2 * da), r2 * (float) sin(angle + 2 * da), width * 0.5f);
-	    glVertex3f(r1 * (float) cos(angle + 3 * da), r1 * (float) sin(angle + 3 * da), width * 0.5f);
+	    glVertex3f(r1 * (float) trig.cos(4 * i), r1 * (float) trig.sin(4 * i), width * 0.5f);
+	    glVertex3f(r2 * (float) trig.cos(4 * i + 1), r2 * (float) trig.sin(4 * i + 1), width * 0.5f);
+	    glVertex3f(r2 * (float) trig.cos(4 * i + 2), r2 * (float) trig.sin(4 * i + 2), width * 0.5f);
+	    glVertex3f(r1 * (float) trig.cos(4 * i + 3), r1 * (float) trig.sin(4 * i + 3), width * 0.5f);
 	  }
 	  glEnd();
 
@@ -119,57 +130,51 @@ final class Gears extends TestCommon{
 	  /* draw back face */
 	  glBegin(GL_QUAD_STRIP);
 	  for (i = 0; i <= teeth; i++) {
-	    angle = i * 2.f * (float) Math.PI / teeth;
-	    glVertex3f(r1 * (float) cos(angle), r1 * (float) sin(angle), -width * 0.5f);
-	    glVertex3f(r0 * (float) cos(angle), r0 * (float) sin(angle), -width * 0.5f);
+	    glVertex3f(r1 * (float) trig.cos(4 * i), r1 * (float) trig.sin(4 * i), -width * 0.5f);
+	    glVertex3f(r0 * (float) trig.cos(4 * i), r0 * (float) trig.sin(4 * i), -width * 0.5f);
 	    if (i < teeth) {
-	      glVertex3f(r1 * (float) cos(angle + 3 * da), r1 * (float) sin(angle + 3 * da), -width * 0.5f);
-	      glVertex3f(r0 * (float) cos(angle), r0 * (float) sin(angle), -width * 0.5f);
+	      glVertex3f(r1 * (float) trig.cos(4 * i + 3), r1 * (float) trig.sin(4 * i + 3), -width * 0.5f);
+	      glVertex3f(r0 * (float) trig.cos(4 * i), r0 * (float) trig.sin(4 * i), -width * 0.5f);
 	    }
 	  }
 	  glEnd();
 
 	  /* draw back sides of teeth */
 	  glBegin(GL_QUADS);
-	  da = 2.f * (float) Math.PI / teeth / 4.f;
 	  for (i = 0; i < teeth; i++) {
-	    angle = i * 2.f * (float) Math.PI / teeth;
-
-	    glVertex3f(r1 * (float) cos(angle + 3 * da), r1 * (float) sin(angle + 3 * da), -width * 0.5f);
-	    glVertex3f(r2 * (float) cos(angle + 2 * da), r2 * (float) sin(angle + 2 * da), -width * 0.5f);
-	    glVertex3f(r2 * (float) cos(angle + da), r2 * (float) sin(angle + da), -width * 0.5f);
-	    glVertex3f(r1 * (float) cos(angle), r1 * (float) sin(angle), -width * 0.5f);
+	    glVertex3f(r1 * (float) trig.cos(4 * i + 3), r1 * (float) trig.sin(4 * i + 3), -width * 0.5f);
+	    glVertex3f(r2 * (float) trig.cos(4 * i + 2), r2 * (float) trig.sin(4 * i + 2), -width * 0.5f);
+	    glVertex3f(r2 * (float) trig.cos(4 * i + 1), r2 * (float) trig.sin(4 * i + 1), -width * 0.5f);
+	    glVertex3f(r1 * (float) trig.cos(4 * i), r1 * (float) trig.sin(4 * i), -width * 0.5f);
 	  }
 	  glEnd();
 
 	  /* draw outward faces of teeth */
 	  glBegin(GL_QUAD_STRIP);
 	  for (i = 0; i < teeth; i++) {
-	    angle = i * 2.f * (float) Math.PI / teeth;
-
-	    glVertex3f(r1 * (float) cos(angle), r1 * (float) sin(angle), width * 0.5f);
-	    glVertex3f(r1 * (float) cos(angle), r1 * (float) sin(angle), -width * 0.5f);
-	    u = r2 * (float) cos(angle + da) - r1 * (float) cos(angle);
-	    v = r2 * (float) sin(angle + da) - r1 * (float) sin(angle);
+	    glVertex3f(r1 * (float) trig.cos(4 * i), r1 * (float) trig.sin(4 * i), width * 0.5f);
+	    glVertex3f(r1 * (float) trig.cos(4 * i), r1 * (float) trig.sin(4 * i), -width * 0.5f);
+	    u = r2 * (float) trig.cos(4 * i + 1) - r1 * (float) trig.cos(4 * i);
+	    v = r2 * (float) trig.sin(4 * i + 1) - r1 * (float) trig.sin(4 * i);
 	    len = (float) Math.sqrt(u * u + v * v);
 	    u /= len;
 	    v /= len;
 	    glNormal3f(v, -u, 0);
-	    glVertex3f(r2 * (float) cos(angle + da), r2 * (float) sin(angle + da), width * 0.5f);
-	    glVertex3f(r2 * (float) cos(angle + da), r2 * (float) sin(angle + da), -width * 0.5f);
-	    glNormal3f((float) cos(angle), (float) sin(angle), 0.f);
-	    glVertex3f(r2 * (float) cos(angle + 2 * da), r2 * (float) sin(angle + 2 * da), width * 0.5f);
-	    glVertex3f(r2 * (float) cos(angle + 2 * da), r2 * (float) sin(angle + 2 * da), -width * 0.5f);
-	    u = r1 * (float) cos(angle + 3 * da) - r2 * (float) cos(angle + 2 * da);
-	    v = r1 * (float) sin(angle + 3 * da) - r2 * (float) sin(angle + 2 * da);
+	    glVertex3f(r2 * (float) trig.cos(4 * i + 1), r2 * (float) trig.sin(4 * i + 1), width * 0.5f);
+	    glVertex3f(r2 * (float) trig.cos(4 * i + 1), r2 * (float) trig.sin(4 * i + 1), -width * 0.5f);
+	    glNormal3f((float) trig.cos(4 * i), (float) trig.sin(4 * i), 0.f);
+	    glVertex3f(r2 * (float) trig.cos(4 * i + 2), r2 * (float) trig.sin(4 * i + 2), width * 0.5f);
+	    glVertex3f(r2 * (float) trig.cos(4 * i + 2), r2 * (float) trig.sin(4 * i + 2), -width * 0.5f);
+	    u = r1 * (float) trig.cos(4 * i + 3) - r2 * (float) trig.cos(4 * i + 2);
+	    v = r1 * (float) trig.sin(4 * i + 3) - r2 * (float) trig.sin(4 * i + 2);
 	    glNormal3f(v, -u, 0.f);
-	    glVertex3f(r1 * (float) cos(angle + 3 * da), r1 * (float) sin(angle + 3 * da), width * 0.5f);
-	    glVertex3f(r1 * (float) cos(angle + 3 * da), r1 * (float) sin(angle + 3 * da), -width * 0.5f);
-	    glNormal3f((float) cos(angle), (float) sin(angle), 0.f);
+	    glVertex3f(r1 * (float) trig.cos(4 * i + 3), r1 * (float) trig.sin(4 * i + 3), width * 0.5f);
+	    glVertex3f(r1 * (float) trig.cos(4 * i + 3), r1 * (float) trig.sin(4 * i + 3), -width * 0.5f);
+	    glNormal3f((float) trig.cos(4 * i), (float) trig.sin(4 * i), 0.f);
 	  }
 
-	  glVertex3f(r1 * (float) cos(0), r1 * (float) sin(0), width * 0.5f);
-	  glVertex3f(r1 * (float) cos(0), r1 * (float) sin(0), -width * 0.5f);
+	  glVertex3f(r1 * (float) trig.cos(0), r1 * (float) trig.sin(0), width * 0.5f);
+	  glVertex3f(r1 * (float) trig.cos(0), r1 * (float) trig.sin(0), -width * 0.5f);
 
 	  glEnd();
 
@@ -178,10 +183,9 @@ final class Gears extends TestCommon{
 	  /* draw inside radius cylinder */
 	  glBegin(GL_QUAD_STRIP);
 	  for (i = 0; i <= teeth; i++) {
-	    angle = i * 2.f * (float) Math.PI / teeth;
-	    glNormal3f(-(float) cos(angle), -(float) sin(angle), 0.f);
-	    glVertex3f(r0 * (float) cos(angle), r0 * (float) sin(angle), -width * 0.5f);
-	    glVertex3f(r0 * (float) cos(angle), r0 * (float) sin(angle), width * 0.5f);
+	    glNormal3f(-(float) trig.cos(4 * i), -(float) trig.sin(4 * i), 0.f);
+	    glVertex3f(r0 * (float) trig.cos(4 * i), r0 * (float) trig.sin(4 * i), -width * 0.5f);
+	    glVertex3f(r0 * (float) trig.cos(4 * i), r0 * (float) trig.sin(4 * i), width * 0.5f);
 	  }
 	  glEnd();
 
@@ -190,8 +194,22 @@ final class Gears extends TestCommon{
 
 	static float view_rotx = 20.f, view_roty = 30.f, view_rotz = 0.f;
 	static int gear1, gear2, gear3;
+	static GearMesh gear1_mesh, gear2_mesh, gear3_mesh;
 	static float angle = 0.f;
 
+	/* Draw a gear from its mesh with the given material, or from its
+	 * display list (which sets the material itself) if it has no mesh */
+	static void draw_gear(int list, GearMesh mesh, FloatBuffer color)
+	{
+	  if (mesh == null) {
+	    glCallList(list);
+	    return;
+	  }
+
+	  glMaterialfv(GL_FRONT, GL_AMBIENT_AND_DIFFUSE, color);
+	  mesh.draw();
+	}
+
 	/* OpenGL draw function & timing */
 	static void draw()
 	{
@@ -205,19 +223,19 @@ final class Gears extends TestCommon{
 	    glPushMatrix();
 	      glTranslatef(-3.0f, -2.0f, 0.0f);
 	      glRotatef(angle, 0.0f, 0.0f, 1.0f);
-	      glCallList(gear1);
+	      draw_gear(gear1, gear1_mesh, red);
 	    glPopMatrix();
 
 	    glPushMatrix();
 	      glTranslatef(3.1f, -2.f, 0.f);
 	      glRotatef(-2.f * angle - 9.f, 0.f, 0.f, 1.f);
-	      glCallList(gear2);
+	      draw_gear(gear2, gear2_mesh, green);
 	    glPopMatrix();
 
 	    glPushMatrix();
 	      glTranslatef(-3.1f, 4.2f, 0.f);
 	      glRotatef(-2.f * angle - 25.f, 0.f, 0.f, 1.f);
-	      glCallList(gear3);
+	      draw_gear(gear3, gear3_mesh, blue);
 	    glPopMatrix();
 
 	  glPopMatrix();
@@ -294,24 +312,40 @@ final class Gears extends TestCommon{
 	  glEnable(GL_LIGHT0);
 	  glEnable(GL_DEPTH_TEST);
 
+	  if (!use_lists && !GL.getCapabilities().OpenGL30) {
+	    printf("Vertex array objects need OpenGL 3.0, using display lists\n");
+	    use_lists = true;
+	  }
+
 	  /* make the gears */
-	  gear1 = glGenLists(1);
-	  glNewList(gear1, GL_COMPILE);
-	  glMaterialfv(GL_FRONT, GL_AMBIENT_AND_DIFFUSE, red);
-	  gear(1.f, 4.f, 1.f, 20, 0.7f);
-	  glEndList();
-
-	  gear2 = glGenLists(1);
-	  glNewList(gear2, GL_COMPILE);
-	  glMaterialfv(GL_FRONT, GL_AMBIENT_AND_DIFFUSE, green);
-	  gear(0.5f, 2.f, 2.f, 10, 0.7f);
-	  glEndList();
-
-	  gear3 = glGenLists(1);
-	  glNewList(gear3, GL_COMPILE);
-	  glMaterialfv(GL_FRONT, GL_AMBIENT_AND_DIFFUSE, blue);
-	  gear(1.3f, 2.f, 0.5f, 10, 0.7f);
-	  glEndList();
+	  if (!use_lists) {
+	    gear1_mesh = new GearMesh(1.f, 4.f, 1.f, 20, 0.7f);
+	    gear1_mesh.make_buffers();
+
+	    gear2_mesh = new GearMesh(0.5f, 2.f, 2.f, 10, 0.7f);
+	    gear2_mesh.make_buffers();
+
+	    gear3_mesh = new GearMesh(1.3f, 2.f, 0.5f, 10, 0.7f);
+	    gear3_mesh.make_buffers();
+	  } else {
+	    gear1 = glGenLists(1);
+	    glNewList(gear1, GL_COMPILE);
+	    glMaterialfv(GL_FRONT, GL_AMBIENT_AND_DIFFUSE, red);
+	    gear(1.f, 4.f, 1.f, 20, 0.7f);
+	    glEndList();
+
+	    gear2 = glGenLists(1);
+	    glNewList(gear2, GL_COMPILE);
+	    glMaterialfv(GL_FRONT, GL_AMBIENT_AND_DIFFUSE, green);
+	    gear(0.5f, 2.f, 2.f, 10, 0.7f);
+	    glEndList();
+
+	    gear3 = glGenLists(1);
+	    glNewList(gear3, GL_COMPILE);
+	    glMaterialfv(GL_FRONT, GL_AMBIENT_AND_DIFFUSE, blue);
+	    gear(1.3f, 2.f, 0.5f, 10, 0.7f);
+	    glEndList();
+	  }
 
 	  glEnable(GL_NORMALIZE);
 
@@ -330,12 +364,52 @@ final class Gears extends TestCommon{
 	}
 
 
+	/* print usage information */
+	static void usage()
+	{
+	    printf("Usage: gears [-h] [-b] [-l]\n");
+	    printf("Options:\n");
+	    printf(" -b   Benchmark: turn vsync off, run for 30 seconds and print the\n");
+	    printf("      frame rate\n");
+	    printf(" -h   Display this help\n");
+	    printf(" -l   Draw the gears from display lists instead of buffer objects\n");
+	}
+
+
 	/* program entry */
 //	int main(int argc, char *argv[])
 	public static void main(String[] argv)
 	{
 	    long window;
 	    int width, height;
+	    long frames = 0;
+	    double start;
+
+	    try {
+			Options options = new Options();
+			options.addOption("b", "Benchmark");
+			options.addOption("h", "Display this help");
+			options.addOption("l", "Use display lists");
+
+			CommandLineParser parser = new DefaultParser();
+			CommandLine cmd = parser.parse(options, argv);
+
+			if(cmd.hasOption("h")) {
+				usage();
+				exit(EXIT_SUCCESS);
+			}
+			benchmark = cmd.hasOption("b");
+			use_lists = cmd.hasOption("l");
+			if (benchmark)
+			{
+				autoexit = 30;
+				printf("Auto Exit after %d seconds.\n", autoexit );
+			}
+		} catch (ParseException e) {
+			fprintf("%s\n", e.getMessage());
+			usage();
+			exit(EXIT_FAILURE);
+		}
 
 	    if( glfwInit()  == 0)
 	    {
@@ -371,7 +445,7 @@ final class Gears extends TestCommon{
 	    glfwMakeContextCurrent(window);
 //	    GLContext.createFromCurrent();
 	    GL.createCapabilities();
-	    glfwSwapInterval( 1 );
+	    glfwSwapInterval( benchmark ? 0 : 1 );
 
 	    glfwGetFramebufferSize(window, x_buf, y_buf);
 	    width = x_buf.get(0);  height = y_buf.get(0);
@@ -379,6 +453,7 @@ final class Gears extends TestCommon{
 
 	    // Parse command-line options
 	    init();
+	    start = glfwGetTime();
 
 	    // Main loop
 	    while(glfwWindowShouldClose(window) == 0)
@@ -392,6 +467,17 @@ final class Gears extends TestCommon{
 	        // Swap buffers
 	        glfwSwapBuffers(window);
 	        glfwPollEvents();
+	        frames++;
+
+	        if (autoexit != 0 && glfwGetTime() - start >= autoexit)
+	            break;
+	    }
+
+	    if (benchmark)
+	    {
+	        double seconds = glfwGetTime() - start;
+	        printf("%d frames in %.1f s, %.1f frames/s with %s\n", frames, seconds,
+	               frames / seconds, use_lists ? "display lists" : "buffer objects");
 	    }
 
 	    // Terminate GLFW
@@ -0,0 +1,127 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Index lists for regular grids of vertices
+//
+// The vertices of a width x height grid are numbered row by row. The
+// quads between them are drawn as one triangle strip: the grid is cut
+// into vertical stripes a few quads wide, each stripe is walked from the
+// bottom row to the top one, and consecutive row strips are joined with
+// degenerate triangles (the last index of one strip and the first of the
+// next are repeated).
+//
+// The stripe width bounds how many new vertices are transformed before a
+// row is used again by the strip above it: with a stripe of at most
+// cache_size - 2 quads, each row is still in a FIFO post-transform cache
+// of cache_size entries when the next row strip needs it. The bottom row
+// of each stripe is loaded into the cache first with a run of degenerate
+// triangles; otherwise the first row strip misses on both of its rows and
+// pushes its vertices out too early, and so on up the whole stripe.
+//========================================================================
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+final class GridMesh {
+
+	// A conservative post-transform cache size; most hardware has more
+	static final int DEFAULT_CACHE_SIZE = 16;
+
+	// Width in quads of the stripes used for a given cache size
+	static int stripe_width(int cache_size)
+	{
+	    return Math.max(cache_size - 2, 1);
+	}
+
+	// Number of indices make_strip() writes for the given grid
+	static int strip_index_count(int width, int height, int stripe)
+	{
+	    int quadw = width - 1, quadh = height - 1;
+	    int stripes = (quadw + stripe - 1) / stripe;
+	    int count = 0;
+
+	    // Two indices per column in the cache load and in each row strip,
+	    // plus two per join
+	    for (int x0 = 0;  x0 < quadw;  x0 += stripe)
+	        count += (quadh + 1) * 2 * (Math.min(stripe, quadw - x0) + 1);
+
+	    return count + 2 * (stripes * (quadh + 1) - 1);
+	}
+
+	// Write the triangle strip for the grid to out, starting at its
+	// position. Triangles are counter-clockwise seen from +z, like the
+	// quads (x, y), (x + 1, y), (x + 1, y + 1), (x, y + 1).
+	static void make_strip(int width, int height, int stripe, IntBuffer out)
+	{
+	    int x, y, x0, x1;
+	    int start = out.position();
+
+	    for (x0 = 0;  x0 < width - 1;  x0 += stripe)
+	    {
+	        x1 = Math.min(x0 + stripe, width - 1);
+
+	        // Load the bottom row, every index twice
+	        join(out, start, x0);
+	        for (x = x0;  x <= x1;  x++)
+	        {
+	            out.put(x);
+	            out.put(x);
+	        }
+
+	        for (y = 0;  y < height - 1;  y++)
+	        {
+	            join(out, start, (y + 1) * width + x0);
+	            for (x = x0;  x <= x1;  x++)
+	            {
+	                out.put((y + 1) * width + x);
+	                out.put(y       * width + x);
+	            }
+	        }
+	    }
+	}
+
+	// Connect the strip written so far to one starting with the given
+	// index. Every run has an even length, so the next one also starts on
+	// an even position and keeps its winding.
+	static void join(IntBuffer out, int start, int next)
+	{
+	    if (out.position() == start)
+	        return;
+
+	    out.put(out.get(out.position() - 1));
+	    out.put(next);
+	}
+
+	// Number of vertices a FIFO post-transform cache of cache_size entries
+	// has to transform to draw the first count indices of the list.
+	// Dividing by the number of triangles gives the average cache miss
+	// ratio (ACMR): 0.5 is the limit for large grids, 3 means no reuse.
+	static int fifo_cache_misses(IntBuffer indices, int count, int cache_size)
+	{
+	    int[] fifo = new int[cache_size];
+	    int head = 0, misses = 0;
+	    int i, j, index;
+
+	    Arrays.fill(fifo, -1);
+
+	    for (i = 0;  i < count;  i++)
+	    {
+	        index = indices.get(i);
+
+	        for (j = 0;  j < cache_size;  j++)
+	        {
+	            if (fifo[j] == index)
+	                break;
+	        }
+
+	        if (j == cache_size)
+	        {
+	            fifo[head] = index;
+	            head = (head + 1) % cache_size;
+	            misses++;
+	        }
+	    }
+
+	    return misses;
+	}
+}
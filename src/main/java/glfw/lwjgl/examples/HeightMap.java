@@ -32,7 +32,15 @@ import static org.lwjgl.opengl.GL30.*;
 
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.GLFWKeyCallback;
 import org.lwjgl.opengl.GL;
@@ -50,9 +58,20 @@ final class HeightMap extends TestCommon{
 
 	/* Map general information */;
 	static final float MAP_SIZE = (10.0f);
-	static final int MAP_NUM_VERTICES = (80);
-	static final int MAP_NUM_TOTAL_VERTICES = (MAP_NUM_VERTICES*MAP_NUM_VERTICES);
-	static final int MAP_NUM_LINES = (3* (MAP_NUM_VERTICES - 1) * (MAP_NUM_VERTICES - 1) + 2 * (MAP_NUM_VERTICES - 1));
+	static final int DEFAULT_MAP_NUM_VERTICES = (80);
+	static final int MAX_MAP_NUM_VERTICES = (4096);
+
+	/* Set by set_map_size() (override with -s) */
+	static int MAP_NUM_VERTICES;
+	static int MAP_NUM_TOTAL_VERTICES;
+	static int MAP_NUM_LINES;
+
+	/* Rows of the map updated by one task of the parallel generation */
+	static final int MAP_STRIPE_ROWS = (32);
+
+	/* Side of the square tiles of vertices a whole batch of circles is
+	 * applied to at once (3 x 64 x 64 floats stay in the L2 cache) */
+	static final int MAP_TILE_SIZE = (64);
 	
 	static boolean DEBUG_ENABLED = false;
 	/**********************************************************************
@@ -109,11 +128,34 @@ final class HeightMap extends TestCommon{
 	 * Heightmap vertex and index data
 	 *********************************************************************/
 
-	static final float[][] map_vertices = new float[3][MAP_NUM_TOTAL_VERTICES];
-	static final int[]  map_line_indices= new int[2*MAP_NUM_LINES];
+	static float[][] map_vertices;
 	
-	static final IntBuffer map_line_indices_buf = BufferUtils.createIntBuffer(2*MAP_NUM_LINES);
-	static final FloatBuffer map_vertices_buf = BufferUtils.createFloatBuffer(3 * MAP_NUM_TOTAL_VERTICES);
+	static IntBuffer map_line_indices_buf;
+	static FloatBuffer map_vertices_buf;
+
+	static {
+		set_map_size(DEFAULT_MAP_NUM_VERTICES);
+	}
+
+	/* Pool for the parallel generation, null to generate on the calling thread */
+	static ForkJoinPool map_pool;
+
+	/* Level-of-detail renderer and its screen-space error tolerance in
+	 * pixels (set with -l), null to draw the full wireframe */
+	static TerrainChunks chunks;
+	static float lod_tolerance;
+
+	/* Generation on the GPU (set with -g), null to generate on the CPU.
+	 * With -v the CPU map is still generated as a reference and compared
+	 * with the GPU heights after every update.
+	 */
+	static HeightMapFeedback gpu_map;
+	static boolean validate_gpu_map;
+	static FloatBuffer gpu_heights_buf;
+	static float max_gpu_map_error;
+
+	/* Largest difference allowed between the GPU and CPU heights */
+	static final float GPU_MAP_TOLERANCE = (1e-3f);
 
 	/* Store uniform location for the shaders
 	 * Those values are setup as part of the process of creating
@@ -123,88 +165,53 @@ final class HeightMap extends TestCommon{
 	static int mesh;
 	static final int[] mesh_vbo = new int[4];
 
+	/* Vertices whose height changed since the last update_mesh(), as a
+	 * range of indices [dirty_begin, dirty_end) */
+	static int dirty_begin = Integer.MAX_VALUE;
+	static int dirty_end = 0;
+
+	/* Bounds of the circles of the batch being applied, four per circle
+	 * (see circle_bounds()). Filled by bound_circles() before the batch is
+	 * applied, and only read while it is, so the map tasks share it */
+	static final int[] batch_bounds = new int[4 * MAX_ITER];
+
+	/* Bytes of height data sent to the VBO by update_mesh(): the most in
+	 * one frame and the total since the start */
+	static long max_frame_bytes_uploaded;
+	static long total_bytes_uploaded;
+
 	/**********************************************************************
-	 * OpenGL helper functions
+	 * Geometry creation functions
 	 *********************************************************************/
 
-	/* Creates a shader object of the specified type using the specified text
+	/* Allocate the vertex and index data for a map of size x size vertices
 	 */
-	static int make_shader(int type, String text)
+	static void set_map_size(int size)
 	{
-	    int shader;
-	    int shader_ok;
-	    shader = glCreateShader(type);
-	    if (shader != 0)
-	    {
-	    	glShaderSource(shader, text);
-	        glCompileShader(shader);
-	        shader_ok = glGetShaderi(shader, GL_COMPILE_STATUS);
-	        if (shader_ok != GL_TRUE)
-	        {
-	            fprintf("ERROR: Failed to compile %s shader\n", (type == GL_FRAGMENT_SHADER) ? "fragment" : "vertex" );
-//	            glGetShaderInfoLog(shader, 8192, &log_length,info_log);
-	            String info_log = glGetShaderInfoLog(shader);
-	            fprintf("ERROR: \n%s\n\n", info_log);
-	            glDeleteShader(shader);
-	            shader = 0;
-	        }
-	    }
-	    return shader;
+	    if (size < 2 || size > MAX_MAP_NUM_VERTICES)
+	        throw new IllegalArgumentException("Map size must be between 2 and " +
+	                                           MAX_MAP_NUM_VERTICES + ": " + size);
+
+	    MAP_NUM_VERTICES = size;
+	    MAP_NUM_TOTAL_VERTICES = size * size;
+	    MAP_NUM_LINES = 3 * (size - 1) * (size - 1) + 2 * (size - 1);
+
+	    map_vertices = new float[3][MAP_NUM_TOTAL_VERTICES];
+	    map_vertices_buf = BufferUtils.createFloatBuffer(3 * MAP_NUM_TOTAL_VERTICES);
 	}
 
-	/* Creates a program object using the specified vertex and fragment text
+	/* Generate on this many threads
 	 */
-	static int make_shader_program(String vs_text,String fs_text)
+	static void set_map_threads(int threads)
 	{
-	    int program = 0;
-	    int program_ok;
-	    int vertex_shader = 0;
-	    int fragment_shader = 0;
-	    vertex_shader = make_shader(GL_VERTEX_SHADER, vs_text);
-	    if (vertex_shader != 0)
-	    {
-	        fragment_shader = make_shader(GL_FRAGMENT_SHADER, fs_text);
-	        if (fragment_shader != 0)
-	        {
-	            /* make the program that connect the two shader and link it */
-	            program = glCreateProgram();
-	            if (program != 0)
-	            {
-	                /* attach both shader and link */
-	                glAttachShader(program, vertex_shader);
-	                glAttachShader(program, fragment_shader);
-	                glLinkProgram(program);
-	                program_ok = glGetProgrami(program, GL_LINK_STATUS);
+	    if (threads < 1)
+	        throw new IllegalArgumentException("Thread count must be positive: " + threads);
 
-	                if (program_ok != GL_TRUE)
-	                {
-	                    fprintf("ERROR, failed to link shader program\n");
-//	                    glGetProgramInfoLog(program, 8192, &log_length, info_log);
-	                    String info_log = glGetProgramInfoLog(program);
-	                    fprintf("ERROR: \n%s\n\n", info_log);
-	                    glDeleteProgram(program);
-	                    glDeleteShader(fragment_shader);
-	                    glDeleteShader(vertex_shader);
-	                    program = 0;
-	                }
-	            }
-	        }
-	        else
-	        {
-	            fprintf("ERROR: Unable to load fragment shader\n");
-	            glDeleteShader(vertex_shader);
-	        }
-	    }
-	    else
-	    {
-	        fprintf("ERROR: Unable to load vertex shader\n");
-	    }
-	    return program;
-	}
+	    if (map_pool != null)
+	        map_pool.shutdown();
 
-	/**********************************************************************
-	 * Geometry creation functions
-	 *********************************************************************/
+	    map_pool = threads > 1 ? new ForkJoinPool(threads) : null;
+	}
 
 	/* Generate vertices and indices for the heightmap
 	 */
@@ -214,22 +221,19 @@ final class HeightMap extends TestCommon{
 	    int j;
 	    int k;
 	    float step = MAP_SIZE / (MAP_NUM_VERTICES - 1);
-	    float x = 0.0f;
-	    float z = 0.0f;
-	    /* Create a flat grid */
+	    /* Create a flat grid. The coordinates are computed from the indices
+	     * rather than accumulated, so that apply_circles() can find the
+	     * vertices around a point by index arithmetic. */
 	    k = 0;
 	    for (i = 0 ; i < MAP_NUM_VERTICES ; ++i)
 	    {
 	        for (j = 0 ; j < MAP_NUM_VERTICES ; ++j)
 	        {
-	            map_vertices[0][k] = x;
+	            map_vertices[0][k] = i * step;
 	            map_vertices[1][k] = 0.0f;
-	            map_vertices[2][k] = z;
-	            z += step;
+	            map_vertices[2][k] = j * step;
 	            ++k;
 	        }
-	        x += step;
-	        z = 0.0f;
 	    }
 	    
 	    map_vertices_buf.clear();
@@ -246,6 +250,16 @@ final class HeightMap extends TestCommon{
 
 	    }
 	}
+	}
+
+	/* Generate the line indices of the wireframe (not needed when drawing
+	 * with TerrainChunks)
+	 */
+	static void make_line_indices()
+	{
+	    int i;
+	    int j;
+	    int k;
 	    /* create indices */
 	    /* line fan based on i
 	     * i+1
@@ -256,17 +270,17 @@ final class HeightMap extends TestCommon{
 	     */
 
 	    /* close the top of the square */
-	    k = 0;
+	    IntBuffer map_line_indices = map_line_indices_buf = BufferUtils.createIntBuffer(2 * MAP_NUM_LINES);
 	    for (i = 0 ; i < MAP_NUM_VERTICES  -1 ; ++i)
 	    {
-	        map_line_indices[k++] = (i + 1) * MAP_NUM_VERTICES -1;
-	        map_line_indices[k++] = (i + 2) * MAP_NUM_VERTICES -1;
+	        map_line_indices.put((i + 1) * MAP_NUM_VERTICES -1);
+	        map_line_indices.put((i + 2) * MAP_NUM_VERTICES -1);
 	    }
 	    /* close the right of the square */
 	    for (i = 0 ; i < MAP_NUM_VERTICES -1 ; ++i)
 	    {
-	        map_line_indices[k++] = (MAP_NUM_VERTICES - 1) * MAP_NUM_VERTICES + i;
-	        map_line_indices[k++] = (MAP_NUM_VERTICES - 1) * MAP_NUM_VERTICES + i + 1;
+	        map_line_indices.put((MAP_NUM_VERTICES - 1) * MAP_NUM_VERTICES + i);
+	        map_line_indices.put((MAP_NUM_VERTICES - 1) * MAP_NUM_VERTICES + i + 1);
 	    }
 
 	    for (i = 0 ; i < (MAP_NUM_VERTICES - 1) ; ++i)
@@ -274,31 +288,29 @@ final class HeightMap extends TestCommon{
 	        for (j = 0 ; j < (MAP_NUM_VERTICES - 1) ; ++j)
 	        {
 	            int ref = i * (MAP_NUM_VERTICES) + j;
-	            map_line_indices[k++] = ref;
-	            map_line_indices[k++] = ref + 1;
+	            map_line_indices.put(ref);
+	            map_line_indices.put(ref + 1);
 
-	            map_line_indices[k++] = ref;
-	            map_line_indices[k++] = ref + MAP_NUM_VERTICES;
+	            map_line_indices.put(ref);
+	            map_line_indices.put(ref + MAP_NUM_VERTICES);
 
-	            map_line_indices[k++] = ref;
-	            map_line_indices[k++] = ref + MAP_NUM_VERTICES + 1;
+	            map_line_indices.put(ref);
+	            map_line_indices.put(ref + MAP_NUM_VERTICES + 1);
 	        }
 	    }
+	    map_line_indices.flip();
 
 	if( DEBUG_ENABLED)
 	    for (k = 0 ; k < 2 * MAP_NUM_LINES ; k += 2)
 	    {
 	        int beg, end;
-	        beg = map_line_indices[k];
-	        end = map_line_indices[k+1];
+	        beg = map_line_indices.get(k);
+	        end = map_line_indices.get(k+1);
 	        printf ("Line %d: %d -> %d (%f, %f, %f) -> (%f, %f, %f)\n",
 	                k / 2, beg, end,
 	                map_vertices[0][beg], map_vertices[1][beg], map_vertices[2][beg],
 	                map_vertices[0][end], map_vertices[1][end], map_vertices[2][end]);
 	    }
-	
-	map_line_indices_buf.clear();
-	map_line_indices_buf.put(map_line_indices).flip();
 	}
 
 	static void generate_heightmap__circle(float[] out/*float* center_x, float* center_y,
@@ -321,6 +333,65 @@ final class HeightMap extends TestCommon{
 	    out[3] = sign * MAX_DISPLACEMENT * (float)Math.random();
 	}
 
+	/* Precompute the circles of a whole map: center x, center z, size and
+	 * half displacement of each, drawn like generate_heightmap__circle()
+	 * does but from the given seed, so the same seed gives the same map
+	 */
+	static float[] make_circle_plans(long seed, int count)
+	{
+	    SplittableRandom random = new SplittableRandom(seed);
+	    float[] plans = new float[4 * count];
+	    float sign;
+	    int n;
+
+	    for (n = 0 ; n < count ; ++n)
+	    {
+	        plans[4 * n]     = MAP_SIZE * (float) random.nextDouble();
+	        plans[4 * n + 1] = MAP_SIZE * (float) random.nextDouble();
+	        plans[4 * n + 2] = MAX_CIRCLE_SIZE * (float) random.nextDouble();
+	        sign = (float) random.nextDouble();
+	        sign = (sign < DISPLACEMENT_SIGN_LIMIT) ? -1.0f : 1.0f;
+	        plans[4 * n + 3] = sign * MAX_DISPLACEMENT * (float) random.nextDouble() / 2.0f;
+	    }
+	    return plans;
+	}
+
+	/* Apply a batch of circles to the whole map in a single pass: each
+	 * tile of MAP_TILE_SIZE x MAP_TILE_SIZE vertices gets all the circles
+	 * that reach it before moving on to the next one
+	 */
+	static void build_map(float[] plans, int count)
+	{
+	    int tiles = (MAP_NUM_VERTICES + MAP_TILE_SIZE - 1) / MAP_TILE_SIZE;
+	    int t;
+
+	    bound_circles(plans, count);
+	    if (map_pool != null && tiles > 1)
+	        map_pool.invoke(new TileTask(plans, count, 0, tiles * tiles));
+	    else
+	    {
+	        for (t = 0 ; t < tiles * tiles ; ++t)
+	            apply_tile(plans, count, t);
+	    }
+
+	    map_vertices_buf.clear();
+	    map_vertices_buf.put(map_vertices[0]);
+	    map_vertices_buf.put(map_vertices[1]);
+	    map_vertices_buf.put(map_vertices[2]);
+	    map_vertices_buf.flip();
+	}
+
+	static void apply_tile(float[] circles, int count, int tile)
+	{
+	    int tiles = (MAP_NUM_VERTICES + MAP_TILE_SIZE - 1) / MAP_TILE_SIZE;
+	    int row0 = tile / tiles * MAP_TILE_SIZE;
+	    int col0 = tile % tiles * MAP_TILE_SIZE;
+
+	    apply_circles(circles, count,
+	                  row0, Math.min(row0 + MAP_TILE_SIZE, MAP_NUM_VERTICES),
+	                  col0, Math.min(col0 + MAP_TILE_SIZE, MAP_NUM_VERTICES));
+	}
+
 	/* Run the specified number of iterations of the generation process for the
 	 * heightmap
 	 */
@@ -328,39 +399,226 @@ final class HeightMap extends TestCommon{
 	{
 	    assert(num_iter > 0);
 	    float[] out = new float[4];
-	    while(num_iter != 0)
+	    float[] circles = new float[4 * num_iter];
+	    int n;
+	    for (n = 0 ; n < num_iter ; ++n)
 	    {
-	        /* center of the circle */
-	        float center_x;
-	        float center_z;
-	        float circle_size;
-	        float disp;
-	        int ii;
 	        generate_heightmap__circle(out/*&center_x, &center_z, &circle_size, &disp*/);
-	        center_x = out[0]; center_z = out[1];
-	        circle_size = out[2]; disp = out[3];
-	        
-	        disp = disp / 2.0f;
-	        for (ii = 0 ; ii < MAP_NUM_TOTAL_VERTICES ; ++ii)
+	        circles[4 * n]     = out[0];
+	        circles[4 * n + 1] = out[1];
+	        circles[4 * n + 2] = out[2];
+	        circles[4 * n + 3] = out[3] / 2.0f;
+	    }
+
+	    bound_circles(circles, num_iter);
+	    mark_dirty(num_iter);
+	    if (gpu_map != null)
+	    {
+	        gpu_map.apply(circles, num_iter, dirty_begin, dirty_end);
+	        if (!validate_gpu_map)
+	            return;
+	    }
+
+	    if (map_pool != null && MAP_NUM_VERTICES > MAP_STRIPE_ROWS)
+	        map_pool.invoke(new MapTask(circles, num_iter, 0, MAP_NUM_VERTICES));
+	    else
+	        apply_circles(circles, num_iter, 0, MAP_NUM_VERTICES, 0, MAP_NUM_VERTICES);
+	}
+
+	/* Largest difference between the heights generated on the GPU and the
+	 * CPU map
+	 */
+	static float gpu_map_error()
+	{
+	    float error = 0.0f;
+	    int i;
+
+	    if (gpu_heights_buf == null)
+	        gpu_heights_buf = BufferUtils.createFloatBuffer(MAP_NUM_TOTAL_VERTICES);
+
+	    gpu_heights_buf.clear();
+	    gpu_map.read_heights(gpu_heights_buf);
+	    for (i = 0 ; i < MAP_NUM_TOTAL_VERTICES ; ++i)
+	        error = Math.max(error, Math.abs(gpu_heights_buf.get(i) - map_vertices[1][i]));
+
+	    return error;
+	}
+
+	/* Exit with a failure if the GPU map is not the CPU one after the
+	 * given number of circles
+	 */
+	static void check_gpu_map(int circles)
+	{
+	    float error = gpu_map_error();
+
+	    if (!(error <= GPU_MAP_TOLERANCE))
+	    {
+	        fprintf("GPU map differs from the CPU one by %f after %d circles\n", error, circles);
+	        glfwTerminate();
+	        exit(EXIT_FAILURE);
+	    }
+	    max_gpu_map_error = Math.max(max_gpu_map_error, error);
+	}
+
+	/* Grow the dirty range to cover the bounding boxes of the circles of
+	 * the batch
+	 */
+	static void mark_dirty(int count)
+	{
+	    final int[] bounds = batch_bounds;
+	    int c;
+
+	    for (c = 0 ; c < count ; ++c)
+	    {
+	        if (bounds[4 * c] >= bounds[4 * c + 1] || bounds[4 * c + 2] >= bounds[4 * c + 3])
+	            continue;
+
+	        dirty_begin = Math.min(dirty_begin, bounds[4 * c] * MAP_NUM_VERTICES + bounds[4 * c + 2]);
+	        dirty_end = Math.max(dirty_end, (bounds[4 * c + 1] - 1) * MAP_NUM_VERTICES + bounds[4 * c + 3]);
+	    }
+	}
+
+	/* Compute the bounds of a batch of circles into batch_bounds
+	 */
+	static void bound_circles(float[] circles, int count)
+	{
+	    int c;
+
+	    assert(count <= MAX_ITER);
+	    for (c = 0 ; c < count ; ++c)
+	        circle_bounds(circles, c, batch_bounds);
+	}
+
+	/* Bounds of the vertices circle c may reach: rows [bounds[4c],
+	 * bounds[4c+1]) and columns [bounds[4c+2], bounds[4c+3]) of the map,
+	 * with generous margins for rounding (one cell on each side and 0.1%
+	 * on the radius)
+	 */
+	static void circle_bounds(float[] circles, int c, int[] bounds)
+	{
+	    final float step = MAP_SIZE / (MAP_NUM_VERTICES - 1);
+	    float center_x = circles[4 * c];
+	    float center_z = circles[4 * c + 1];
+	    double radius = 0.5 * circles[4 * c + 2] * 1.001 + step;
+
+	    bounds[4 * c]     = Math.max((int) Math.floor((center_x - radius) / step), 0);
+	    bounds[4 * c + 1] = Math.min((int) Math.ceil((center_x + radius) / step) + 1, MAP_NUM_VERTICES);
+	    bounds[4 * c + 2] = Math.max((int) Math.floor((center_z - radius) / step), 0);
+	    bounds[4 * c + 3] = Math.min((int) Math.ceil((center_z + radius) / step) + 1, MAP_NUM_VERTICES);
+	}
+
+	/* Raise the rows [row0, row1) and columns [col0, col1) of the map by the
+	 * given circles (center x, center z, size and half displacement each),
+	 * in order. Only the vertices in the bounds of a circle (taken from
+	 * batch_bounds) are visited, and the root
+	 * and cosine are only taken for those whose squared distance may be
+	 * within it. The distance itself is tested exactly as a scan over all
+	 * vertices would, so the result does not depend on the bounds, nor on
+	 * how the map is split between threads.
+	 */
+	static void apply_circles(float[] circles, int count, int row0, int row1, int col0, int col1)
+	{
+	    final int[] bounds = batch_bounds;
+	    int c, i, j, i0, i1, j0, j1, ii;
+	    float center_x, center_z, circle_size, disp;
+	    double limit;
+
+	    for (c = 0 ; c < count ; ++c)
+	    {
+	        center_x = circles[4 * c];
+	        center_z = circles[4 * c + 1];
+	        circle_size = circles[4 * c + 2];
+	        disp = circles[4 * c + 3];
+
+	        /* 0.1% margin on the squared radius for rounding */
+	        limit = 0.25 * circle_size * circle_size * 1.001;
+
+	        i0 = Math.max(bounds[4 * c], row0);
+	        i1 = Math.min(bounds[4 * c + 1], row1);
+	        j0 = Math.max(bounds[4 * c + 2], col0);
+	        j1 = Math.min(bounds[4 * c + 3], col1);
+
+	        for (i = i0 ; i < i1 ; ++i)
 	        {
-	            float dx = center_x - map_vertices[0][ii];
-	            float dz = center_z - map_vertices[2][ii];
-	            float pd = (float) ((2.0 * Math.sqrt((dx * dx) + (dz * dz))) / circle_size);
-	            if (Math.abs(pd) <= 1.0f)
+	            for (j = j0 ; j < j1 ; ++j)
 	            {
-	                /* tx,tz is within the circle */
-	                float new_height = disp + (float) (cos(pd*3.14f)*disp);
-	                map_vertices[1][ii] += new_height;
+	                ii = i * MAP_NUM_VERTICES + j;
+	                float dx = center_x - map_vertices[0][ii];
+	                float dz = center_z - map_vertices[2][ii];
+	                float d2 = (dx * dx) + (dz * dz);
+	                if (d2 > limit)
+	                    continue;
+
+	                float pd = (float) ((2.0 * Math.sqrt(d2)) / circle_size);
+	                if (Math.abs(pd) <= 1.0f)
+	                {
+	                    /* tx,tz is within the circle */
+	                    float new_height = disp + (float) (cos(pd*3.14f)*disp);
+	                    map_vertices[1][ii] += new_height;
+	                }
 	            }
 	        }
-	        --num_iter;
 	    }
-	    
-	    map_vertices_buf.clear();
-	    map_vertices_buf.put(map_vertices[0]);
-	    map_vertices_buf.put(map_vertices[1]);
-	    map_vertices_buf.put(map_vertices[2]);
-	    map_vertices_buf.flip();
+	}
+
+	/* Applies the circles to a range of rows, split in stripes of
+	 * MAP_STRIPE_ROWS rows
+	 */
+	final static class MapTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+
+		final float[] circles;
+		final int count, row0, row1;
+
+		MapTask(float[] circles, int count, int row0, int row1){
+			this.circles = circles;
+			this.count = count;
+			this.row0 = row0;
+			this.row1 = row1;
+		}
+
+		@Override
+		protected void compute() {
+			if (row1 - row0 <= MAP_STRIPE_ROWS)
+			{
+				apply_circles(circles, count, row0, row1, 0, MAP_NUM_VERTICES);
+				return;
+			}
+
+			int stripes = (row1 - row0 + MAP_STRIPE_ROWS - 1) / MAP_STRIPE_ROWS;
+			int mid = row0 + stripes / 2 * MAP_STRIPE_ROWS;
+			invokeAll(new MapTask(circles, count, row0, mid),
+			          new MapTask(circles, count, mid, row1));
+		}
+	}
+
+	/* Applies a batch of circles to a range of tiles
+	 */
+	final static class TileTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+
+		final float[] circles;
+		final int count, tile0, tile1;
+
+		TileTask(float[] circles, int count, int tile0, int tile1){
+			this.circles = circles;
+			this.count = count;
+			this.tile0 = tile0;
+			this.tile1 = tile1;
+		}
+
+		@Override
+		protected void compute() {
+			if (tile1 - tile0 == 1)
+			{
+				apply_tile(circles, count, tile0);
+				return;
+			}
+
+			int mid = (tile0 + tile1) >>> 1;
+			invokeAll(new TileTask(circles, count, tile0, mid),
+			          new TileTask(circles, count, mid, tile1));
+		}
 	}
 
 	/**********************************************************************
@@ -382,8 +640,13 @@ final class HeightMap extends TestCommon{
 	    mesh_vbo[3] = glGenBuffers();
 	    glBindVertexArray(mesh);
 	    /* Prepare the data for drawing through a buffer inidices */
-	    glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, mesh_vbo[3]);
-	    glBufferData(GL_ELEMENT_ARRAY_BUFFER, map_line_indices_buf, GL_STATIC_DRAW);
+	    if (chunks == null)
+	    {
+	        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, mesh_vbo[3]);
+	        glBufferData(GL_ELEMENT_ARRAY_BUFFER, map_line_indices_buf, GL_STATIC_DRAW);
+	    }
+	    else
+	        chunks.make_buffers();
 
 	    /* Prepare the attributes for rendering */
 	    attrloc = glGetAttribLocation(program, "x");
@@ -410,19 +673,58 @@ final class HeightMap extends TestCommon{
 	    glVertexAttribPointer(attrloc, 1, GL_FLOAT, false, 0, 0);
 	}
 
-	/* Update VBO vertices from source data
+	/* Update VBO vertices from source data. Only the heights in the dirty
+	 * range are sent: x and z never change.
 	 */
 	static void update_mesh()
 	{
-		map_vertices_buf.clear();
-		map_vertices_buf.position(MAP_NUM_TOTAL_VERTICES).limit(MAP_NUM_TOTAL_VERTICES * 2);
-	    glBufferSubData(GL_ARRAY_BUFFER, 0, map_vertices_buf);
+	    int count = dirty_end - dirty_begin;
+
+	    if (count <= 0)
+	        return;
+
+	    /* The GPU wrote the heights in place */
+	    if (gpu_map != null)
+	    {
+	        dirty_begin = Integer.MAX_VALUE;
+	        dirty_end = 0;
+	        return;
+	    }
+
+	    map_vertices_buf.clear();
+	    map_vertices_buf.position(MAP_NUM_TOTAL_VERTICES + dirty_begin);
+	    map_vertices_buf.put(map_vertices[1], dirty_begin, count);
+	    map_vertices_buf.flip();
+	    map_vertices_buf.position(MAP_NUM_TOTAL_VERTICES + dirty_begin);
+
+	    glBindBuffer(GL_ARRAY_BUFFER, mesh_vbo[1]);
+	    glBufferSubData(GL_ARRAY_BUFFER, 4L * dirty_begin, map_vertices_buf);
+
+	    max_frame_bytes_uploaded = Math.max(max_frame_bytes_uploaded, 4L * count);
+	    total_bytes_uploaded += 4L * count;
+	    dirty_begin = Integer.MAX_VALUE;
+	    dirty_end = 0;
 	}
 
 	/**********************************************************************
 	 * GLFW callback functions
 	 *********************************************************************/
 
+	static void usage()
+	{
+	    printf("Usage: heightmap [-h] [-g] [-v] [-b seed] [-j threads] [-l pixels] [-s size]\n");
+	    printf("Options:\n");
+	    printf(" -b   Build the whole map at startup from this random seed\n");
+	    printf(" -g   Generate the map on the GPU with transform feedback\n");
+	    printf(" -h   Display this help\n");
+	    printf(" -j   Generate the map on this many threads (default is one)\n");
+	    printf(" -l   Draw in patches whose detail keeps the error under this many pixels\n");
+	    printf(" -s   Map size in vertices per side, up to %d (default is %d)\n",
+	           MAX_MAP_NUM_VERTICES, DEFAULT_MAP_NUM_VERTICES);
+	    printf(" -v   With -g, check the GPU map against the CPU after every update\n");
+	    printf("      and exit once it is complete (with failure if they differ)\n");
+	}
+
 	static void key_callback(long window, int key, int scancode, int action, int mods)
 	{
 	    switch(key)
@@ -446,9 +748,57 @@ final class HeightMap extends TestCommon{
 	    int uloc_project;
 
 	    int shader_program;
+	    boolean batch = false;
+	    boolean gpu = false;
+	    long seed = 0;
 
 //	    glfwSetErrorCallback(safe(Callbacks.errorCallbackPrint()));
 
+	    try {
+			Options options = new Options();
+			options.addOption("b", true, "Build the whole map from this seed");
+			options.addOption("g", "Generate on the GPU");
+			options.addOption("h", "Display this help");
+			options.addOption("j", true, "Number of generation threads");
+			options.addOption("l", true, "Level-of-detail error tolerance in pixels");
+			options.addOption("s", true, "Map size");
+			options.addOption("v", "Validate the GPU map");
+
+			CommandLineParser parser = new DefaultParser();
+			CommandLine cmd = parser.parse(options, argv);
+
+			if(cmd.hasOption("h")) {
+				usage();
+				exit(EXIT_SUCCESS);
+			}
+			if(cmd.hasOption("b"))
+			{
+				batch = true;
+				seed = Long.parseLong(cmd.getOptionValue("b"));
+			}
+			if(cmd.hasOption("j"))
+				set_map_threads(Integer.parseInt(cmd.getOptionValue("j")));
+			if(cmd.hasOption("l"))
+			{
+				lod_tolerance = Float.parseFloat(cmd.getOptionValue("l"));
+				if (!(lod_tolerance > 0.f))
+					throw new IllegalArgumentException("Tolerance must be positive: " + lod_tolerance);
+			}
+			if(cmd.hasOption("s"))
+				set_map_size(Integer.parseInt(cmd.getOptionValue("s")));
+			gpu = cmd.hasOption("g");
+			validate_gpu_map = cmd.hasOption("v");
+			if (validate_gpu_map && !gpu)
+				throw new IllegalArgumentException("-v only applies to -g");
+			/* The patches need the heights on the CPU */
+			if (gpu && lod_tolerance > 0.f)
+				throw new IllegalArgumentException("-g cannot be combined with -l");
+		} catch (ParseException | IllegalArgumentException e) {
+			fprintf("%s\n", e.getMessage());
+			usage();
+			exit(EXIT_FAILURE);
+		}
+
 	    if (glfwInit() == 0)
 	        exit(EXIT_FAILURE);
 
@@ -478,7 +828,7 @@ final class HeightMap extends TestCommon{
 //	    gladLoadGLLoader((GLADloadproc) glfwGetProcAddress);
 
 	    /* Prepare opengl resources for rendering */
-	    shader_program = make_shader_program(vertex_shader_text, fragment_shader_text);
+	    shader_program = Shaders.make_shader_program(vertex_shader_text, fragment_shader_text);
 
 	    if (shader_program == 0)
 	    {
@@ -511,7 +861,58 @@ final class HeightMap extends TestCommon{
 
 	    /* Create mesh data */
 	    init_map();
-	    make_mesh(shader_program);
+	    iter = 0;
+	    if (gpu)
+	    {
+	        make_line_indices();
+	        make_mesh(shader_program);
+	        gpu_map = HeightMapFeedback.create(mesh_vbo[0], mesh_vbo[1], mesh_vbo[2], MAP_NUM_TOTAL_VERTICES);
+	        if (gpu_map == null)
+	        {
+	            glfwTerminate();
+	            exit(EXIT_FAILURE);
+	        }
+
+	        if (batch)
+	        {
+	            float[] plans = make_circle_plans(seed, MAX_ITER);
+	            double start = glfwGetTime();
+	            gpu_map.apply(plans, MAX_ITER, 0, MAP_NUM_TOTAL_VERTICES);
+	            glFinish();
+	            printf("Built the map from %d circles on the GPU in %.1f ms\n", MAX_ITER, (glfwGetTime() - start) * 1000.0);
+	            if (validate_gpu_map)
+	            {
+	                build_map(plans, MAX_ITER);
+	                check_gpu_map(MAX_ITER);
+	            }
+	            iter = MAX_ITER;
+	        }
+	    }
+	    else if (batch)
+	    {
+	        double start = glfwGetTime();
+	        build_map(make_circle_plans(seed, MAX_ITER), MAX_ITER);
+	        printf("Built the map from %d circles in %.1f ms\n", MAX_ITER, (glfwGetTime() - start) * 1000.0);
+	        iter = MAX_ITER;
+	    }
+	    if (gpu_map != null)
+	    {
+	        /* Back to the drawing state make_mesh() left */
+	        glUseProgram(shader_program);
+	        glBindVertexArray(mesh);
+	    }
+	    else
+	    {
+	        if (lod_tolerance > 0.f)
+	            chunks = new TerrainChunks(map_vertices, MAP_NUM_VERTICES);
+	        else
+	            make_line_indices();
+	        make_mesh(shader_program);
+	    }
+
+	    /* The patches are triangles, drawn as lines like the full wireframe */
+	    if (chunks != null)
+	        glPolygonMode(GL_FRONT_AND_BACK, GL_LINE);
 
 	    /* Create vao + vbo to store the mesh */
 	    /* Create the vbo to store all the information for the grid and the height */
@@ -520,14 +921,27 @@ final class HeightMap extends TestCommon{
 	    glViewport(0, 0, 800, 600);
 	    glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
 
-	    iter = 0;
 	    last_update_time = glfwGetTime();
 
 	    while (glfwWindowShouldClose(window) == 0)
 	    {
+	        if (validate_gpu_map && iter >= MAX_ITER)
+	        {
+	            printf("GPU map matches the CPU one (largest difference %g)\n", max_gpu_map_error);
+	            break;
+	        }
+
 	        /* render the next frame */
 	        glClear(GL_COLOR_BUFFER_BIT);
-	        glDrawElements(GL_LINES, 2* MAP_NUM_LINES , GL_UNSIGNED_INT, 0);
+	        if (chunks != null)
+	        {
+	            /* The camera is at minus the modelview translation */
+	            chunks.select_levels(-modelview_matrix[12], -modelview_matrix[13], -modelview_matrix[14],
+	                                 projection_matrix[5] * 600 / 2.0f, lod_tolerance);
+	            chunks.draw();
+	        }
+	        else
+	            glDrawElements(GL_LINES, 2* MAP_NUM_LINES , GL_UNSIGNED_INT, 0);
 
 	        /* display and process events through callbacks */
 	        glfwSwapBuffers(window);
@@ -540,6 +954,16 @@ final class HeightMap extends TestCommon{
 	            if (iter < MAX_ITER)
 	            {
 	                update_map(NUM_ITER_AT_A_TIME);
+	                if (gpu_map != null)
+	                {
+	                    if (validate_gpu_map)
+	                        check_gpu_map(iter + NUM_ITER_AT_A_TIME);
+	                    glUseProgram(shader_program);
+	                    glBindVertexArray(mesh);
+	                }
+	                if (chunks != null)
+	                    chunks.update_rows(dirty_begin / MAP_NUM_VERTICES,
+	                                       (dirty_end - 1) / MAP_NUM_VERTICES + 1);
 	                update_mesh();
 	                iter += NUM_ITER_AT_A_TIME;
 	            }
@@ -547,6 +971,12 @@ final class HeightMap extends TestCommon{
 	        }
 	    }
 
+	    printf("Uploaded %d bytes of height data after the initial mesh, at most %d in one frame\n",
+	           total_bytes_uploaded, max_frame_bytes_uploaded);
+	    if (chunks != null && chunks.frames > 0)
+	        printf("Drew %d of %d triangles per frame on average\n",
+	               chunks.total_triangles / chunks.frames, 2L * (MAP_NUM_VERTICES - 1) * (MAP_NUM_VERTICES - 1));
+
 	    glfwTerminate();
 	    exit(EXIT_SUCCESS);
 	}
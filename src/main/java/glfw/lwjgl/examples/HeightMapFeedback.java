@@ -0,0 +1,157 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// HeightMap generation on the GPU with transform feedback
+//
+// The heights stay in the mesh buffer the map is drawn from. A vertex
+// shader reads the x, y and z of every vertex, adds the displacement of
+// a batch of circles to y exactly like HeightMap.apply_circles() does,
+// and its output is captured into a scratch buffer with the rasterizer
+// turned off. The result is then copied back over the heights on the GPU,
+// since a buffer cannot be read as a vertex attribute and written by
+// transform feedback in the same draw.
+//
+// Only a range of vertices is processed per batch (the dirty range of
+// the circles), so a small circle costs about as much as its bounding
+// rows. Everything used here is core in OpenGL 3.1.
+//========================================================================
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+
+final class HeightMapFeedback {
+
+	// Circles per draw, well within the 1024 vertex uniform components
+	// every OpenGL 3 implementation offers
+	static final int MAX_CIRCLES = 64;
+
+	static final String vertex_shader_text =
+	"#version 140\n"+
+	"uniform vec4 circles[" + MAX_CIRCLES + "];\n"+
+	"uniform int count;\n"+
+	"in float x;\n"+
+	"in float y;\n"+
+	"in float z;\n"+
+	"out float height;\n"+
+	"\n"+
+	"void main()\n"+
+	"{\n"+
+	"    height = y;\n"+
+	"    for (int c = 0; c < count; ++c)\n"+
+	"    {\n"+
+	"        /* center x, center z, size and half displacement */\n"+
+	"        vec4 circle = circles[c];\n"+
+	"        vec2 d = circle.xy - vec2(x, z);\n"+
+	"        float pd = (2.0 * sqrt(dot(d, d))) / circle.z;\n"+
+	"        if (abs(pd) <= 1.0)\n"+
+	"            height += circle.w + cos(pd * 3.14) * circle.w;\n"+
+	"    }\n"+
+	"}\n";
+
+	final int num_vertices;
+	final int height_vbo;
+
+	private final int program;
+	private final int vao;
+	private final int feedback_vbo;
+	private final int uloc_circles;
+	private final int uloc_count;
+	private final FloatBuffer circle_buf = BufferUtils.createFloatBuffer(4 * MAX_CIRCLES);
+
+	private HeightMapFeedback(int program, int x_vbo, int y_vbo, int z_vbo, int num_vertices)
+	{
+	    this.program = program;
+	    this.num_vertices = num_vertices;
+	    this.height_vbo = y_vbo;
+
+	    uloc_circles = glGetUniformLocation(program, "circles");
+	    uloc_count = glGetUniformLocation(program, "count");
+
+	    vao = glGenVertexArrays();
+	    glBindVertexArray(vao);
+	    bind_attribute("x", x_vbo);
+	    bind_attribute("y", y_vbo);
+	    bind_attribute("z", z_vbo);
+
+	    feedback_vbo = glGenBuffers();
+	    glBindBuffer(GL_ARRAY_BUFFER, feedback_vbo);
+	    glBufferData(GL_ARRAY_BUFFER, 4L * num_vertices, GL_DYNAMIC_COPY);
+	}
+
+	// Set up the generation for the map whose coordinates are in the given
+	// buffers (one float per vertex each). Returns null if the shader could
+	// not be built.
+	static HeightMapFeedback create(int x_vbo, int y_vbo, int z_vbo, int num_vertices)
+	{
+	    int program = Shaders.make_feedback_program(vertex_shader_text, "height");
+
+	    if (program == 0)
+	        return null;
+
+	    return new HeightMapFeedback(program, x_vbo, y_vbo, z_vbo, num_vertices);
+	}
+
+	private void bind_attribute(String name, int vbo)
+	{
+	    int attrloc = glGetAttribLocation(program, name);
+
+	    glBindBuffer(GL_ARRAY_BUFFER, vbo);
+	    glEnableVertexAttribArray(attrloc);
+	    glVertexAttribPointer(attrloc, 1, GL_FLOAT, false, 0, 0);
+	}
+
+	// Raise the vertices [begin, end) of the map by the given circles (four
+	// floats each, as in HeightMap.apply_circles()), in order. This changes
+	// the current program, vertex array and array buffer.
+	void apply(float[] circles, int count, int begin, int end)
+	{
+	    int first, n;
+
+	    if (begin >= end)
+	        return;
+
+	    glUseProgram(program);
+	    glBindVertexArray(vao);
+	    glEnable(GL_RASTERIZER_DISCARD);
+	    glBindBufferRange(GL_TRANSFORM_FEEDBACK_BUFFER, 0, feedback_vbo,
+	                      4L * begin, 4L * (end - begin));
+	    glBindBuffer(GL_COPY_READ_BUFFER, feedback_vbo);
+	    glBindBuffer(GL_COPY_WRITE_BUFFER, height_vbo);
+
+	    for (first = 0 ; first < count ; first += MAX_CIRCLES)
+	    {
+	        n = Math.min(count - first, MAX_CIRCLES);
+
+	        circle_buf.clear();
+	        circle_buf.put(circles, 4 * first, 4 * n);
+	        circle_buf.flip();
+	        glUniform4fv(uloc_circles, circle_buf);
+	        glUniform1i(uloc_count, n);
+
+	        glBeginTransformFeedback(GL_POINTS);
+	        glDrawArrays(GL_POINTS, begin, end - begin);
+	        glEndTransformFeedback();
+
+	        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER,
+	                            4L * begin, 4L * begin, 4L * (end - begin));
+	    }
+
+	    glBindBufferBase(GL_TRANSFORM_FEEDBACK_BUFFER, 0, 0);
+	    glDisable(GL_RASTERIZER_DISCARD);
+	}
+
+	// Read the heights back into out (num_vertices floats), for checking
+	// them against the CPU. This waits for the GPU.
+	void read_heights(FloatBuffer out)
+	{
+	    glBindBuffer(GL_ARRAY_BUFFER, height_vbo);
+	    glGetBufferSubData(GL_ARRAY_BUFFER, 0, out);
+	}
+}
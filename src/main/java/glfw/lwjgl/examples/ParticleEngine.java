@@ -0,0 +1,335 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Particle fountain physics
+//
+// All randomness comes from the injected Random and all time from the
+// arguments of advance(), so two engines with the same seed, particle
+// count and time steps end up in bitwise identical states, whatever the
+// number of physics threads.
+//========================================================================
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+final class ParticleEngine implements ParticleSimulation {
+
+	//========================================================================
+	// = These are fixed constants that control the particle engine. In a
+	// modular world, these values should be variables...
+	//========================================================================
+
+	// Default maximum number of particles (override with -n);
+	public static final int DEFAULT_MAX_PARTICLES = 3000;
+
+	// Life span of a particle (in seconds);
+	public static final float LIFE_SPAN = 8.f;
+
+	// Particle size (meters);
+	public static final float PARTICLE_SIZE = 0.7f;
+
+	// Gravitational constant (m/s^2);
+	public static final float GRAVITY = 9.8f;
+
+	// Base initial velocity (m/s);
+	public static final float VELOCITY = 8.f;
+
+	// Bounce friction (1.0 = no friction, 0.0 = maximum friction);
+	public static final float FRICTION = 0.75f;
+
+	// "Fountain" height (m);
+	public static final float FOUNTAIN_HEIGHT = 3.f;
+
+	// Fountain radius (m);
+	public static final float FOUNTAIN_RADIUS = 1.6f;
+
+	static final float FOUNTAIN_R2 = (FOUNTAIN_RADIUS+PARTICLE_SIZE/2)*(FOUNTAIN_RADIUS+PARTICLE_SIZE/2);
+
+	// Number of particles updated by one physics task. This is a multiple of
+	// 64, so that two tasks never write to the same word of the active bitset.
+	static final int PHYSICS_CHUNK = 4096;
+
+	// Minimum delta-time for particle phisics (s). It is the step of the
+	// default fountain and does not depend on the particle count, so that
+	// the number of physics steps per frame stays the same with -n.
+	static final float MIN_DELTA_T = (LIFE_SPAN / DEFAULT_MAX_PARTICLES) * 0.5f;
+
+	// A new particle is born every [birth_interval] second. The birth rate
+	// is derived from the particle count, so that the fountain is always
+	// "full". Larger fountains get several births per physics step.
+	final float birth_interval;
+
+	// Store holding all particles (one primitive array per attribute)
+	final ParticleStore particles;
+
+	// Age of the youngest particle
+	float min_age;
+
+	// Position and color of latest born particle (used for fountain lighting)
+	final float[] glow_pos = new float[4];
+	final float[] glow_color = new float[4];
+
+	// Source of the spawn directions
+	final Random rng;
+
+	// Worker pool for the particle physics (null = update on a single thread)
+	final ForkJoinPool physics_pool;
+
+	// Slots of particles that died during the current physics step, stored
+	// per chunk (chunk c owns dead_slots[c * PHYSICS_CHUNK...]), and the
+	// number of deaths in each chunk
+	final int[] dead_slots;
+	final int[] dead_counts;
+
+	ParticleEngine(int max_particles, Random rng, ForkJoinPool physics_pool)
+	{
+		particles = new ParticleStore(max_particles);
+		birth_interval = LIFE_SPAN / (float) max_particles;
+
+		this.rng = rng;
+		this.physics_pool = physics_pool;
+
+		dead_slots = new int[max_particles];
+		dead_counts = new int[(max_particles + PHYSICS_CHUNK - 1) / PHYSICS_CHUNK];
+	}
+
+	public ParticleStore store()
+	{
+		return particles;
+	}
+
+	public float[] glow_pos()
+	{
+		return glow_pos;
+	}
+
+	public float[] glow_color()
+	{
+		return glow_color;
+	}
+
+
+	//========================================================================
+	// Initialize a new particle
+	//========================================================================
+	void init_particle(ParticleStore p, int i, double t)
+	{
+	    float xy_angle, velocity;
+
+	    // Start position of particle is at the fountain blow-out
+	    p.x[i] = 0.f;
+	    p.y[i] = 0.f;
+	    p.z[i] = FOUNTAIN_HEIGHT;
+
+	    // Start velocity is up (Z)...
+	    p.vz[i] = 0.7f + (0.3f / 4096.f) * (float) rng.nextInt(4096);
+
+	    // ...and a randomly chosen X/Y direction
+	    xy_angle = (2.f * (float) Math.PI / 4096.f) * (float) rng.nextInt(4096);
+	    p.vx[i] = 0.4f * (float) Math.cos(xy_angle);
+	    p.vy[i] = 0.4f * (float) Math.sin(xy_angle);
+
+	    // Scale velocity vector according to a time-varying velocity
+	    velocity = VELOCITY * (0.8f + 0.1f * (float) (Math.sin(0.5 * t) + Math.sin(1.31 * t)));
+	    p.vx[i] *= velocity;
+	    p.vy[i] *= velocity;
+	    p.vz[i] *= velocity;
+
+	    // Color is time-varying
+	    p.r[i] = 0.7f + 0.3f * (float) Math.sin(0.34 * t + 0.1);
+	    p.g[i] = 0.6f + 0.4f * (float) Math.sin(0.63 * t + 1.1);
+	    p.b[i] = 0.6f + 0.4f * (float) Math.sin(0.91 * t + 2.1);
+
+	    // Store settings for fountain glow lighting
+	    glow_pos[0] = 0.4f * (float) Math.sin(1.34 * t);
+	    glow_pos[1] = 0.4f * (float) Math.sin(3.11 * t);
+	    glow_pos[2] = FOUNTAIN_HEIGHT + 1.f;
+	    glow_pos[3] = 1.f;
+	    glow_color[0] = p.r[i];
+	    glow_color[1] = p.g[i];
+	    glow_color[2] = p.b[i];
+	    glow_color[3] = 1.f;
+
+	    // The particle is new-born and active
+	    p.life[i] = 1.f;
+	    p.set_active(i);
+	}
+
+
+	//========================================================================
+	// Update a particle
+	//========================================================================
+
+	// Returns false if the particle died. Its slot is then inactive, but it is
+	// up to the caller to give it back to the free list.
+	static boolean update_particle(ParticleStore p, int i, float dt)
+	{
+	    float x, y, z, vz;
+
+	    // The particle is getting older...
+	    p.life[i] -= dt * (1.f / LIFE_SPAN);
+
+	    // Did the particle die?
+	    if (p.life[i] <= 0.f)
+	    {
+	        p.set_inactive(i);
+	        return false;
+	    }
+
+	    // Apply gravity
+	    vz = p.vz[i] - GRAVITY * dt;
+
+	    // Update particle position
+	    x = p.x[i] + p.vx[i] * dt;
+	    y = p.y[i] + p.vy[i] * dt;
+	    z = p.z[i] + vz * dt;
+
+	    // Simple collision detection + response
+	    if (vz < 0.f)
+	    {
+	        // Particles should bounce on the fountain (with friction)
+	        if ((x * x + y * y) < FOUNTAIN_R2 &&
+	            z < (FOUNTAIN_HEIGHT + PARTICLE_SIZE / 2))
+	        {
+	            vz = -FRICTION * vz;
+	            z  = FOUNTAIN_HEIGHT + PARTICLE_SIZE / 2 +
+	                    FRICTION * (FOUNTAIN_HEIGHT +
+	                    PARTICLE_SIZE / 2 - z);
+	        }
+
+	        // Particles should bounce on the floor (with friction)
+	        else if (z < PARTICLE_SIZE / 2)
+	        {
+	            vz = -FRICTION * vz;
+	            z  = PARTICLE_SIZE / 2 +
+	                    FRICTION * (PARTICLE_SIZE / 2 - z);
+	        }
+	    }
+
+	    p.x[i]  = x;
+	    p.y[i]  = y;
+	    p.z[i]  = z;
+	    p.vz[i] = vz;
+	    return true;
+	}
+
+
+	//========================================================================
+	// Update all active particles of one chunk and record the ones that died
+	//========================================================================
+
+	void update_chunk(int chunk, float dt)
+	{
+	    int i, dead;
+	    final ParticleStore p = particles;
+	    int from = chunk * PHYSICS_CHUNK;
+	    int to = Math.min(from + PHYSICS_CHUNK, p.capacity);
+
+	    dead = 0;
+	    for (i = p.next_active(from, to);  i >= 0;  i = p.next_active(i + 1, to))
+	    {
+	        if (!update_particle(p, i, dt))
+	            dead_slots[from + dead++] = i;
+	    }
+
+	    dead_counts[chunk] = dead;
+	}
+
+	// Fork/join task updating the chunks [from, to)
+	final class PhysicsTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+
+		final int from, to;
+		final float dt;
+
+		PhysicsTask(int from, int to, float dt){
+			this.from = from;
+			this.to = to;
+			this.dt = dt;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1)
+			{
+				update_chunk(from, dt);
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new PhysicsTask(from, mid, dt), new PhysicsTask(mid, to, dt));
+		}
+	}
+
+
+	//========================================================================
+	// Update all particles by one time step. The chunks are updated in
+	// parallel if a physics pool is configured, but dead slots are always
+	// handed back to the free list in the same (chunk) order, so spawning
+	// stays deterministic and does not depend on the number of threads.
+	//========================================================================
+
+	void update_particles(float dt)
+	{
+	    int chunk, k;
+	    final int chunks = dead_counts.length;
+
+	    if (physics_pool != null && chunks > 1)
+	        physics_pool.invoke(new PhysicsTask(0, chunks, dt));
+	    else
+	    {
+	        for (chunk = 0;  chunk < chunks;  chunk++)
+	            update_chunk(chunk, dt);
+	    }
+
+	    for (chunk = 0;  chunk < chunks;  chunk++)
+	    {
+	        final int base = chunk * PHYSICS_CHUNK;
+	        for (k = 0;  k < dead_counts[chunk];  k++)
+	            particles.release(dead_slots[base + k]);
+	    }
+	}
+
+
+	//========================================================================
+	// The main frame for the particle engine. Called once per frame.
+	//========================================================================
+
+	public void advance(double t, float dt)
+	{
+	    int i, births;
+	    float dt2;
+
+	    // Update particles (iterated several times per frame if dt is too large)
+	    while (dt > 0.f)
+	    {
+	        // Calculate delta time for this iteration
+	        dt2 = dt < MIN_DELTA_T ? dt : MIN_DELTA_T;
+
+	        update_particles(dt2);
+
+	        min_age += dt2;
+
+	        // Should we create any new particle(s)? One is due for every
+	        // birth interval the youngest particle has aged
+	        births = (int) (min_age / birth_interval);
+	        for ( ;  births > 0;  births--)
+	        {
+	            min_age -= birth_interval;
+
+	            // Take a dead particle off the free list and replace it with a
+	            // new one
+	            i = particles.allocate();
+	            if (i >= 0)
+	            {
+	                init_particle(particles, i, t + min_age);
+	                if (!update_particle(particles, i, min_age))
+	                    particles.release(i);
+	            }
+	        }
+
+	        dt -= dt2;
+	    }
+	}
+}
@@ -0,0 +1,26 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// The physics side of the particle fountain, free of any windowing or
+// OpenGL calls. The renderer (Particles) and the headless harness
+// (ParticlesHeadless) both drive the simulation through this interface.
+//========================================================================
+
+interface ParticleSimulation {
+
+	// Source of the simulation time (s). Particles reads the GLFW timer,
+	// the headless harness steps a fixed frame clock.
+	interface Clock {
+		double time();
+	}
+
+	// Advance the simulation by dt seconds, ending at time t
+	void advance(double t, float dt);
+
+	// Current particle state
+	ParticleStore store();
+
+	// Position and color of the latest born particle (fountain lighting)
+	float[] glow_pos();
+	float[] glow_color();
+}
@@ -0,0 +1,178 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Structure-of-arrays storage for the particle engine
+//
+// Every particle attribute lives in its own primitive array, indexed by
+// particle slot, and the "active" flags are packed 64 to a long. The
+// physics loop walks the arrays linearly and the draw loop skips dead
+// slots a whole word at a time, so neither touches a heap object per
+// particle.
+//
+// Dead slots are kept on a stack, so spawning a particle is O(1) instead
+// of a scan for the first inactive slot.
+//========================================================================
+
+final class ParticleStore {
+
+	final int capacity;
+
+	final float[] x, y, z;       // Position in space
+	final float[] vx, vy, vz;    // Velocity vector
+	final float[] r, g, b;       // Color of particle
+	final float[] life;          // Life of particle (1.0 = newborn, < 0.0 = dead)
+
+	// Tells if a particle is active (bit i & 63 of word i >> 6)
+	final long[] active;
+
+	// Stack of inactive slots; the top of the stack is free_slots[free_count - 1]
+	final int[] free_slots;
+	int free_count;
+
+	ParticleStore(int capacity)
+	{
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+
+		this.capacity = capacity;
+
+		x  = new float[capacity];
+		y  = new float[capacity];
+		z  = new float[capacity];
+		vx = new float[capacity];
+		vy = new float[capacity];
+		vz = new float[capacity];
+		r  = new float[capacity];
+		g  = new float[capacity];
+		b  = new float[capacity];
+		life = new float[capacity];
+
+		active = new long[(capacity + 63) >>> 6];
+
+		// Push in reverse order so that the lowest slots are handed out first
+		free_slots = new int[capacity];
+		for (int i = 0;  i < capacity;  i++)
+			free_slots[i] = capacity - 1 - i;
+		free_count = capacity;
+	}
+
+	boolean is_active(int i)
+	{
+		return (active[i >>> 6] & (1L << i)) != 0;
+	}
+
+	void set_active(int i)
+	{
+		active[i >>> 6] |= 1L << i;
+	}
+
+	//========================================================================
+	// Take a dead slot off the free stack, or return -1 if all slots are in
+	// use. The caller is responsible for initializing and activating it.
+	//========================================================================
+
+	int allocate()
+	{
+		return free_count > 0 ? free_slots[--free_count] : -1;
+	}
+
+	void set_inactive(int i)
+	{
+		active[i >>> 6] &= ~(1L << i);
+	}
+
+	//========================================================================
+	// Return the slot of a dead (already inactive) particle to the free
+	// stack. This is kept apart from set_inactive() so that the parallel
+	// physics can clear active bits concurrently and push the slots
+	// afterwards in a fixed order.
+	//========================================================================
+
+	void release(int i)
+	{
+		free_slots[free_count++] = i;
+	}
+
+	//========================================================================
+	// Return the index of the first active particle at or after "from", or
+	// -1 if there is none
+	//========================================================================
+
+	int next_active(int from)
+	{
+		return next_active(from, capacity);
+	}
+
+	//========================================================================
+	// Return the index of the first active particle in [from, to), or -1 if
+	// there is none. Only the words of the bitset holding that range are
+	// read, so a physics task never looks at the words of another chunk.
+	//========================================================================
+
+	int next_active(int from, int to)
+	{
+		if (from >= to)
+			return -1;
+
+		int w = from >>> 6;
+		final int last = (to - 1) >>> 6;
+		long word = active[w] & (-1L << from);
+
+		for (;;)
+		{
+			if (word != 0)
+			{
+				int i = (w << 6) + Long.numberOfTrailingZeros(word);
+				return i < to ? i : -1;
+			}
+
+			if (++w > last)
+				return -1;
+
+			word = active[w];
+		}
+	}
+
+	int active_count()
+	{
+		return capacity - free_count;
+	}
+
+	//========================================================================
+	// Digest of the complete state: every active slot with all its
+	// attributes, plus the order of the free stack (which decides where the
+	// next particles are born). Bitwise equal states give equal checksums.
+	//========================================================================
+
+	long checksum()
+	{
+		int i, k;
+		long h = 0xcbf29ce484222325L;
+
+		for (i = next_active(0);  i >= 0;  i = next_active(i + 1))
+		{
+			h = mix(h, i);
+			h = mix(h, Float.floatToIntBits(x[i]));
+			h = mix(h, Float.floatToIntBits(y[i]));
+			h = mix(h, Float.floatToIntBits(z[i]));
+			h = mix(h, Float.floatToIntBits(vx[i]));
+			h = mix(h, Float.floatToIntBits(vy[i]));
+			h = mix(h, Float.floatToIntBits(vz[i]));
+			h = mix(h, Float.floatToIntBits(r[i]));
+			h = mix(h, Float.floatToIntBits(g[i]));
+			h = mix(h, Float.floatToIntBits(b[i]));
+			h = mix(h, Float.floatToIntBits(life[i]));
+		}
+
+		for (k = 0;  k < free_count;  k++)
+			h = mix(h, free_slots[k]);
+
+		return h;
+	}
+
+	// One FNV-1a step over a 32-bit word
+	private static long mix(long h, int word)
+	{
+		return (h ^ (word & 0xffffffffL)) * 0x100000001b3L;
+	}
+}
@@ -25,13 +25,25 @@ package glfw.lwjgl.examples;
 // distribution.
 //
 //========================================================================
+import static glfw.lwjgl.examples.ParticleEngine.*;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
 
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.GLFWKeyCallback;
 import org.lwjgl.glfw.GLFWVidMode;
@@ -47,40 +59,9 @@ final class Particles extends TestCommon{
 	static final int GL_LIGHT_MODEL_COLOR_CONTROL_EXT = 0x81F8;
 	static final int GL_SINGLE_COLOR_EXT = 0x81F9;
 	static final int GL_SEPARATE_SPECULAR_COLOR_EXT = 0x81FA;
-	//========================================================================
-	// = These are fixed constants that control the particle engine. In a
-	// modular world, these values should be variables...
-	//========================================================================
-
-	// Maximum number of particles;
-	public static final int MAX_PARTICLES = 3000;
-
-	// Life span of a particle (in seconds);
-	public static final float LIFE_SPAN = 8.f;
-
-	// A new particle is born every [BIRTH_INTERVAL] second;
-	public static final float BIRTH_INTERVAL = (LIFE_SPAN/(float)MAX_PARTICLES);
-
-	// Particle size (meters);
-	public static final float PARTICLE_SIZE = 0.7f;
-
-	// Gravitational constant (m/s^2);
-	public static final float GRAVITY = 9.8f;
-
-	// Base initial velocity (m/s);
-	public static final float VELOCITY = 8.f;
-
-	// Bounce friction (1.0 = no friction, 0.0 = maximum friction);
-	public static final float FRICTION = 0.75f;
-
-	// "Fountain" height (m);
-	public static final float FOUNTAIN_HEIGHT = 3.f;
 
-	// Fountain radius (m);
-	public static final float FOUNTAIN_RADIUS = 1.6f;
-
-	// Minimum delta-time for particle phisics (s);
-	public static final float MIN_DELTA_T = (BIRTH_INTERVAL * 0.5f);
+	// The constants that control the particle engine (particle size, life
+	// span, fountain dimensions...) are found in ParticleEngine.
 	
 	//========================================================================
 	// Texture declarations (we hard-code them into the source code, since
@@ -96,6 +77,15 @@ final class Particles extends TestCommon{
     // (70 corresponds to 7.5 KB = will not blow
     // the L1 data cache on most CPUs)
 	static final int PARTICLE_VERTS  =4;   // Number of vertices per particle
+
+	// Words (32-bit) per vertex in the interleaved GL_T2F_C4UB_V3F layout:
+	// s, t (floats), rgba (four ubytes packed into an int), x, y, z (floats).
+	// This is a multiple of 64 bits (6x32=3x64), so every vertex stays aligned.
+	static final int VERTEX_WORDS = 6;
+
+	// Words per particle in point sprite mode: x, y, z (floats), rgba (four
+	// ubytes packed into an int) and life (float)
+	static final int POINT_WORDS = 5;
 	
 	//========================================================================
 	// Program control global variables
@@ -103,6 +93,14 @@ final class Particles extends TestCommon{
 
 	// Window dimensions
 	static float aspect_ratio;
+	static int viewport_height;
+
+	// Particle render modes. Quads are built on the CPU (four vertices per
+	// particle); point sprites upload one record per particle and let a
+	// shader size and texture the billboard.
+	static final int RENDER_QUADS  = 0;
+	static final int RENDER_POINTS = 1;
+	static int render_mode = RENDER_QUADS;
 
 	// "wireframe" flag (true if we use wireframe view)
 	static boolean wireframe;
@@ -142,21 +140,19 @@ final class Particles extends TestCommon{
 	    0x30, 0x30, 0x30, 0x30, 0x30, 0x30, 0x30, 0x30, 0xf0, 0xf0, 0xf0, 0xf0, 0xf0, 0xf0, 0xf0, 0xf0,
 	};
 	
-	// Global vectors holding all particles. We use two vectors for double
-	// buffering.
-	static final Particle[] particles = new Particle[MAX_PARTICLES];
-	static final Vertex[] vertex_array = new Vertex[BATCH_PARTICLES * PARTICLE_VERTS];
-
-	// Global variable holding the age of the youngest particle
-	static float min_age;
+	// Particle physics (one step per frame)
+	static ParticleSimulation engine;
 
-	// Color of latest born particle (used for fountain lighting)
-	static final float[] glow_color = new float[4];
+	// Source of the frame time
+	static ParticleSimulation.Clock clock = new ParticleSimulation.Clock() {
+		public double time() {
+			return glfwGetTime();
+		}
+	};
 
-	// Position of latest born particle (used for fountain lighting)
-	static final float[] glow_pos = new float[4];
-	
-	static final Object particles_lock = new Object();
+	// Time the physics thread waits for the previous frame to be drawn before
+	// it moves on anyway (ns)
+	static final long PHYSICS_WAIT_TIMEOUT = 100000000L;
 
 	//========================================================================
 	// Object material and fog configuration constants
@@ -176,11 +172,6 @@ final class Particles extends TestCommon{
 	
 	static {
 		allocate(10 * 1024 * 1024);  // 10MB
-		for(int i= 0; i < particles.length; i++)
-			particles[i] = new Particle();
-		
-		for(int i = 0; i < vertex_array.length; i++)
-			vertex_array[i] = new Vertex();
 	}
 	
 	static void allocate(int size){
@@ -195,10 +186,14 @@ final class Particles extends TestCommon{
 
 	static void usage()
 	{
-	    printf("Usage: particles [-bfhs]\n");
+	    printf("Usage: particles [-fhs] [-n count] [-j threads] [-r quads|points]\n");
 	    printf("Options:\n");
 	    printf(" -f   Run in full screen\n");
 	    printf(" -h   Display this help\n");
+	    printf(" -j   Update particle physics on this many cores (default is one)\n");
+	    printf(" -n   Maximum number of particles (default is %d)\n", DEFAULT_MAX_PARTICLES);
+	    printf(" -r   Draw particles as CPU-built quads or shader point sprites\n");
+	    printf("      (default is quads)\n");
 	    printf(" -s   Run program as single thread (default is to use two threads)\n");
 	    printf("\n");
 	    printf("Program runtime controls:\n");
@@ -208,168 +203,116 @@ final class Particles extends TestCommon{
 
 
 	//========================================================================
-	// Initialize a new particle
+	// Copy everything the renderer needs from the particle store into a
+	// frame snapshot. Colors are converted to their final RGBA form here, so
+	// that this work is done by the physics thread rather than by the
+	// drawing thread.
 	//========================================================================
-	static void init_particle(Particle p, double t)
-	{
-	    float xy_angle, velocity;
-
-	    // Start position of particle is at the fountain blow-out
-	    p.x = 0.f;
-	    p.y = 0.f;
-	    p.z = FOUNTAIN_HEIGHT;
-
-	    // Start velocity is up (Z)...
-	    p.vz = 0.7f + (0.3f / 4096.f) * (float) (rand() & 4095);
-
-	    // ...and a randomly chosen X/Y direction
-	    xy_angle = (2.f * (float) Math.PI / 4096.f) * (float) (rand() & 4095);
-	    p.vx = 0.4f * (float) cos(xy_angle);
-	    p.vy = 0.4f * (float) sin(xy_angle);
-
-	    // Scale velocity vector according to a time-varying velocity
-	    velocity = VELOCITY * (0.8f + 0.1f * (float) (sin(0.5 * t) + sin(1.31 * t)));
-	    p.vx *= velocity;
-	    p.vy *= velocity;
-	    p.vz *= velocity;
-
-	    // Color is time-varying
-	    p.r = 0.7f + 0.3f * (float) sin(0.34 * t + 0.1);
-	    p.g = 0.6f + 0.4f * (float) sin(0.63 * t + 1.1);
-	    p.b = 0.6f + 0.4f * (float) sin(0.91 * t + 2.1);
-
-	    // Store settings for fountain glow lighting
-	    glow_pos[0] = 0.4f * (float) sin(1.34 * t);
-	    glow_pos[1] = 0.4f * (float) sin(3.11 * t);
-	    glow_pos[2] = FOUNTAIN_HEIGHT + 1.f;
-	    glow_pos[3] = 1.f;
-	    glow_color[0] = p.r;
-	    glow_color[1] = p.g;
-	    glow_color[2] = p.b;
-	    glow_color[3] = 1.f;
-
-	    // The particle is new-born and active
-	    p.life = 1.f;
-	    p.active = true;
-	}
-
 
-	//========================================================================
-	// Update a particle
-	//========================================================================
-	static final float FOUNTAIN_R2 = (FOUNTAIN_RADIUS+PARTICLE_SIZE/2)*(FOUNTAIN_RADIUS+PARTICLE_SIZE/2);
-
-	static void update_particle(Particle p, float dt)
+	static void snapshot_particles(Snapshot frame)
 	{
-	    // If the particle is not active, we need not do anything
-	    if (!p.active)
-	        return;
+	    int i, n, r, g, b, a;
+	    float alpha;
+	    final ParticleStore p = engine.store();
 
-	    // The particle is getting older...
-	    p.life -= dt * (1.f / LIFE_SPAN);
+	    frame.ensure_capacity(p.capacity);
 
-	    // Did the particle die?
-	    if (p.life <= 0.f)
+	    n = 0;
+	    for (i = p.next_active(0);  i >= 0;  i = p.next_active(i + 1))
 	    {
-	        p.active = false;
-	        return;
+	        frame.xyz[3 * n]     = p.x[i];
+	        frame.xyz[3 * n + 1] = p.y[i];
+	        frame.xyz[3 * n + 2] = p.z[i];
+
+	        // Calculate particle intensity (we set it to max during 75%
+	        // of its life, then it fades out)
+	        alpha =  4.f * p.life[i];
+	        if (alpha > 1.f)
+	            alpha = 1.f;
+
+	        // Convert color from float to 8-bit (store it in a 32-bit
+	        // integer using endian independent type casting)
+	        r = (int)(p.r[i] * 255);
+	        g = (int)(p.g[i] * 255);
+	        b = (int)(p.b[i] * 255);
+	        a = (int)(alpha * 255);
+
+	        frame.rgba[n] = r | (g << 8) | (b << 16)| (a << 24);
+	        frame.life[n] = p.life[i];
+	        n++;
 	    }
+	    frame.count = n;
 
-	    // Apply gravity
-	    p.vz = p.vz - GRAVITY * dt;
-
-	    // Update particle position
-	    p.x = p.x + p.vx * dt;
-	    p.y = p.y + p.vy * dt;
-	    p.z = p.z + p.vz * dt;
-
-	    // Simple collision detection + response
-	    if (p.vz < 0.f)
-	    {
-	        // Particles should bounce on the fountain (with friction)
-	        if ((p.x * p.x + p.y * p.y) < FOUNTAIN_R2 &&
-	            p.z < (FOUNTAIN_HEIGHT + PARTICLE_SIZE / 2))
-	        {
-	            p.vz = -FRICTION * p.vz;
-	            p.z  = FOUNTAIN_HEIGHT + PARTICLE_SIZE / 2 +
-	                    FRICTION * (FOUNTAIN_HEIGHT +
-	                    PARTICLE_SIZE / 2 - p.z);
-	        }
-
-	        // Particles should bounce on the floor (with friction)
-	        else if (p.z < PARTICLE_SIZE / 2)
-	        {
-	            p.vz = -FRICTION * p.vz;
-	            p.z  = PARTICLE_SIZE / 2 +
-	                    FRICTION * (PARTICLE_SIZE / 2 - p.z);
-	        }
-	    }
-	}
-
-
-	//========================================================================
-	// The main frame for the particle engine. Called once per frame.
-	//========================================================================
-
-	static void particle_engine(double t, float dt)
-	{
-	    int i;
-	    float dt2;
-
-	    // Update particles (iterated several times per frame if dt is too large)
-	    while (dt > 0.f)
-	    {
-	        // Calculate delta time for this iteration
-	        dt2 = dt < MIN_DELTA_T ? dt : MIN_DELTA_T;
-
-	        for (i = 0;  i < MAX_PARTICLES;  i++)
-	            update_particle(particles[i], dt2);
-
-	        min_age += dt2;
-
-	        // Should we create any new particle(s)?
-	        while (min_age >= BIRTH_INTERVAL)
-	        {
-	            min_age -= BIRTH_INTERVAL;
-
-	            // Find a dead particle to replace with a new one
-	            for (i = 0;  i < MAX_PARTICLES;  i++)
-	            {
-	                if (!particles[i].active)
-	                {
-	                    init_particle(particles[i], t + min_age);
-	                    update_particle(particles[i], min_age);
-	                    break;
-	                }
-	            }
-	        }
-
-	        dt -= dt2;
-	    }
+	    System.arraycopy(engine.glow_pos(), 0, frame.glow_pos, 0, 4);
+	    System.arraycopy(engine.glow_color(), 0, frame.glow_color, 0, 4);
 	}
 
 
 	//========================================================================
 	// Draw all active particles. We use OpenGL 1.1 vertex
-	// arrays for this in order to accelerate the drawing.
+	// arrays for this in order to accelerate the drawing, streamed through
+	// a buffer object where the driver supports it.
 	//========================================================================
 
 	static final float[] matrix = new float[16];
 	static final ThreadSync thread_sync = new ThreadSync();
+	static final SnapshotExchange snapshots = new SnapshotExchange();
+
+	// Buffer object the particle quads are streamed through
+	static StreamingVertexBuffer vertex_stream;
 	
-	static ByteBuffer wrap(Vertex[] array){
-		int size = array.length * 6 * 4;
-		if(size > nativeBuffer.capacity()){
-			allocate(size);
-		}
-		
+	// Store one vertex of the GL_T2F_C4UB_V3F layout straight into a
+	// native buffer, through its float and int views (see the layout
+	// note at VERTEX_WORDS). No per-vertex object is built on the way.
+	static void pack_vertex(FloatBuffer fb, IntBuffer ib, int vertex,
+	                        float s, float t, int rgba, float x, float y, float z){
+		int w = vertex * VERTEX_WORDS;
+		fb.put(w,     s);
+		fb.put(w + 1, t);
+		ib.put(w + 2, rgba);
+		fb.put(w + 3, x);
+		fb.put(w + 4, y);
+		fb.put(w + 5, z);
+	}
+	
+	// Store the four corners of the billboard of particle i of the frame,
+	// starting at the given vertex
+	static void pack_quad(FloatBuffer fb, IntBuffer ib, int vertex, Snapshot frame, int i,
+	                      Vec3 quad_lower_left, Vec3 quad_lower_right){
+		int rgba = frame.rgba[i];
+		float px = frame.xyz[3 * i];
+		float py = frame.xyz[3 * i + 1];
+		float pz = frame.xyz[3 * i + 2];
+
+		// Lower left corner
+		pack_vertex(fb, ib, vertex, 0.f, 0.f, rgba,
+		            px + quad_lower_left.x,
+		            py + quad_lower_left.y,
+		            pz + quad_lower_left.z);
+
+		// Lower right corner
+		pack_vertex(fb, ib, vertex + 1, 1.f, 0.f, rgba,
+		            px + quad_lower_right.x,
+		            py + quad_lower_right.y,
+		            pz + quad_lower_right.z);
+
+		// Upper right corner
+		pack_vertex(fb, ib, vertex + 2, 1.f, 1.f, rgba,
+		            px - quad_lower_left.x,
+		            py - quad_lower_left.y,
+		            pz - quad_lower_left.z);
+
+		// Upper left corner
+		pack_vertex(fb, ib, vertex + 3, 0.f, 1.f, rgba,
+		            px - quad_lower_right.x,
+		            py - quad_lower_right.y,
+		            pz - quad_lower_right.z);
+	}
+	
+	// The native buffer, limited to the vertices of the first "particles" quads
+	static ByteBuffer vertices(int particles){
 		nativeBuffer.clear();
-		for(Vertex v : array){
-			nativeBuffer.putFloat(v.s).putFloat(v.t);
-			nativeBuffer.putInt(v.rgba);
-			nativeBuffer.putFloat(v.x).putFloat(v.y).putFloat(v.z);
-		}
-		nativeBuffer.flip();
+		nativeBuffer.limit(particles * PARTICLE_VERTS * VERTEX_WORDS * 4);
 		return nativeBuffer;
 	}
 	
@@ -388,17 +331,11 @@ final class Particles extends TestCommon{
 		return nativeBuffer;
 	}
 	
-	static void draw_particles(long window, double t, float dt)
+	static void draw_particles(long window, Snapshot frame)
 	{
 	    int i, particle_count;
-//	    Vertex vertex_array[BATCH_PARTICLES * PARTICLE_VERTS];
-	    Vertex vptr;
-	    float alpha;
-	    int rgba;
 	    final Vec3 quad_lower_left = new Vec3(), quad_lower_right = new Vec3();
 	    float[] mat = matrix;
-	    Particle pptr;
-	    int vIndex = 0;
 
 	    // Here comes the real trick with flat single primitive objects (s.c.
 	    // "billboards"): We must rotate the textured primitive so that it
@@ -443,140 +380,69 @@ final class Particles extends TestCommon{
 	        glBindTexture(GL_TEXTURE_2D, particle_tex_id);
 	    }
 
-	    if(!USE_MULTI_THREAD){
-	    	particle_engine(t, dt);
-	    }
-	    	
-
-	    // Wait for particle physics thread to be done
-	    synchronized (particles_lock) {
-//	    mtx_lock(&thread_sync.particles_lock);
-//	    while (glfwWindowShouldClose(window) != 0 &&
-//	            thread_sync.p_frame <= thread_sync.d_frame)
-//	    {
-//	        struct timespec ts;
-//	        clock_gettime(CLOCK_REALTIME, &ts);
-//	        ts.tv_nsec += 100000000;
-//	        cnd_timedwait(&thread_sync.p_done, &thread_sync.particles_lock, &ts);
-//	    }
+	    // Loop through all particles of the frame and build vertex arrays.
+	    // The physics thread keeps running on the next frame meanwhile.
+	    // 3) Translate the quad to the correct position in modelview
+	    // space and store its parameters in vertex arrays (we also
+	    // store texture coord and color information for each vertex).
+	    if (vertex_stream.mode != StreamingVertexBuffer.CLIENT)
+	    {
+	        // All particles go into one segment of the streaming buffer
+	        // and are drawn with a single call
+	        vertex_stream.begin(frame.count * PARTICLE_VERTS * VERTEX_WORDS * 4);
 
-	    // Store the frame time and delta time for the physics thread
-	    thread_sync.t = t;
-	    thread_sync.dt = dt;
+	        for (i = 0;  i < frame.count;  i++)
+	        {
+	            pack_quad(vertex_stream.floats, vertex_stream.ints, i * PARTICLE_VERTS,
+	                      frame, i, quad_lower_left, quad_lower_right);
+	        }
 
-	    // Update frame counter
-	    thread_sync.d_frame++;
+	        long offset = vertex_stream.end();
 
-	    // Loop through all particles and build vertex arrays.
-	    particle_count = 0;
+	        // GL_T2F_C4UB_V3F means: 2 floats for texture coords, 4 ubytes
+	        // for color and 3 floats for vertex coord (in that order).
+	        glInterleavedArrays(GL_T2F_C4UB_V3F, 0, offset);
+	        glDrawArrays(GL_QUADS, 0, PARTICLE_VERTS * frame.count);
 
-	    for (i = 0;  i < MAX_PARTICLES;  i++)
+	        vertex_stream.fence();
+	        glBindBuffer(GL_ARRAY_BUFFER, 0);
+	    }
+	    else
 	    {
-	    	pptr = particles[i];
-	        if (pptr.active)
+	        particle_count = 0;
+
+	        for (i = 0;  i < frame.count;  i++)
 	        {
-	            // Calculate particle intensity (we set it to max during 75%
-	            // of its life, then it fades out)
-	            alpha =  4.f * pptr.life;
-	            if (alpha > 1.f)
-	                alpha = 1.f;
-
-	            // Convert color from float to 8-bit (store it in a 32-bit
-	            // integer using endian independent type casting)
-//	            ((GLubyte*) &rgba)[0] = (GLubyte)(pptr.r * 255.f);
-//	            ((GLubyte*) &rgba)[1] = (GLubyte)(pptr.g * 255.f);
-//	            ((GLubyte*) &rgba)[2] = (GLubyte)(pptr.b * 255.f);
-//	            ((GLubyte*) &rgba)[3] = (GLubyte)(alpha * 255.f);
-	            int r = (int)(pptr.r * 255);
-	            int g = (int)(pptr.g * 255);
-	            int b = (int)(pptr.b * 255);
-	            int a = (int)(alpha * 255);
-	            
-	            rgba = r | (g << 8) | (b << 16)| (a << 24);
-
-	            // 3) Translate the quad to the correct position in modelview
-	            // space and store its parameters in vertex arrays (we also
-	            // store texture coord and color information for each vertex).
-
-	            // Lower left corner
-	            vptr = vertex_array[vIndex++];
-	            vptr.s    = 0.f;
-	            vptr.t    = 0.f;
-	            vptr.rgba = rgba;
-	            vptr.x    = pptr.x + quad_lower_left.x;
-	            vptr.y    = pptr.y + quad_lower_left.y;
-	            vptr.z    = pptr.z + quad_lower_left.z;
-
-	            // Lower right corner
-	            vptr = vertex_array[vIndex++];
-	            vptr.s    = 1.f;
-	            vptr.t    = 0.f;
-	            vptr.rgba = rgba;
-	            vptr.x    = pptr.x + quad_lower_right.x;
-	            vptr.y    = pptr.y + quad_lower_right.y;
-	            vptr.z    = pptr.z + quad_lower_right.z;
-
-	            // Upper right corner
-	            vptr = vertex_array[vIndex++];
-	            vptr.s    = 1.f;
-	            vptr.t    = 1.f;
-	            vptr.rgba = rgba;
-	            vptr.x    = pptr.x - quad_lower_left.x;
-	            vptr.y    = pptr.y - quad_lower_left.y;
-	            vptr.z    = pptr.z - quad_lower_left.z;
-
-	            // Upper left corner
-	            vptr = vertex_array[vIndex++];
-	            vptr.s    = 0.f;
-	            vptr.t    = 1.f;
-	            vptr.rgba = rgba;
-	            vptr.x    = pptr.x - quad_lower_right.x;
-	            vptr.y    = pptr.y - quad_lower_right.y;
-	            vptr.z    = pptr.z - quad_lower_right.z;
+	            pack_quad(floatBuffer, intBuffer, particle_count * PARTICLE_VERTS,
+	                      frame, i, quad_lower_left, quad_lower_right);
 
 	            // Increase count of drawable particles
 	            particle_count ++;
-	        }
 
-	        // If we have filled up one batch of particles, draw it as a set
-	        // of quads using glDrawArrays.
-	        if (particle_count >= BATCH_PARTICLES)
-	        {
-	        	// Set up vertex arrays. We use interleaved arrays, which is easier to
-	    	    // handle (in most situations) and it gives a linear memeory access
-	    	    // access pattern (which may give better performance in some
-	    	    // situations). GL_T2F_C4UB_V3F means: 2 floats for texture coords,
-	    	    // 4 ubytes for color and 3 floats for vertex coord (in that order).
-	    	    // Most OpenGL cards / drivers are optimized for this format.
-	    	    glInterleavedArrays(GL_T2F_C4UB_V3F, 0, wrap(vertex_array));
-	            // The first argument tells which primitive type we use (QUAD)
-	            // The second argument tells the index of the first vertex (0)
-	            // The last argument is the vertex count
-	            glDrawArrays(GL_QUADS, 0, PARTICLE_VERTS * particle_count);
-	            particle_count = 0;
-	            vIndex = 0;
-//	            vptr = vertex_array[vIndex++];
+	            // If we have filled up one batch of particles, draw it as a set
+	            // of quads using glDrawArrays.
+	            if (particle_count >= BATCH_PARTICLES)
+	            {
+	                // Set up vertex arrays. We use interleaved arrays, which is easier to
+	                // handle (in most situations) and it gives a linear memeory access
+	                // access pattern (which may give better performance in some
+	                // situations). GL_T2F_C4UB_V3F means: 2 floats for texture coords,
+	                // 4 ubytes for color and 3 floats for vertex coord (in that order).
+	                // Most OpenGL cards / drivers are optimized for this format.
+	                glInterleavedArrays(GL_T2F_C4UB_V3F, 0, vertices(particle_count));
+	                // The first argument tells which primitive type we use (QUAD)
+	                // The second argument tells the index of the first vertex (0)
+	                // The last argument is the vertex count
+	                glDrawArrays(GL_QUADS, 0, PARTICLE_VERTS * particle_count);
+	                particle_count = 0;
+	            }
 	        }
 
+	        // Draw final batch of particles (if any)
+	        glInterleavedArrays(GL_T2F_C4UB_V3F, 0, vertices(particle_count));
+	        glDrawArrays(GL_QUADS, 0, PARTICLE_VERTS * particle_count);
 	    }
 
-	    // We are done with the particle data
-//	    mtx_unlock(&thread_sync.particles_lock);
-//	    cnd_signal(&thread_sync.d_done);
-	    
-	    particles_lock.notify();
-	    }
-
-	 // Set up vertex arrays. We use interleaved arrays, which is easier to
-	    // handle (in most situations) and it gives a linear memeory access
-	    // access pattern (which may give better performance in some
-	    // situations). GL_T2F_C4UB_V3F means: 2 floats for texture coords,
-	    // 4 ubytes for color and 3 floats for vertex coord (in that order).
-	    // Most OpenGL cards / drivers are optimized for this format.
-	    glInterleavedArrays(GL_T2F_C4UB_V3F, 0, wrap(vertex_array));
-	    // Draw final batch of particles (if any)
-	    glDrawArrays(GL_QUADS, 0, PARTICLE_VERTS * particle_count);
-
 	    // Disable vertex arrays (Note: glInterleavedArrays implicitly called
 	    // glEnableClientState for vertex, texture coord and color arrays)
 	    glDisableClientState(GL_VERTEX_ARRAY);
@@ -590,6 +456,163 @@ final class Particles extends TestCommon{
 	}
 
 
+	//========================================================================
+	// Draw all active particles as point sprites. Each particle is a single
+	// 20-byte record; the vertex shader sizes the point by its distance to
+	// the eye, so it covers the same area as the CPU-built quad (within the
+	// point size range of the implementation), and the fragment shader
+	// textures it through gl_PointCoord.
+	//========================================================================
+
+	static final String point_vertex_shader_text =
+	"#version 120\n"+
+	"uniform float viewport_height;\n"+
+	"attribute vec3 position;\n"+
+	"attribute vec4 color;\n"+
+	"attribute float life;\n"+
+	"varying vec4 particle_color;\n"+
+	"\n"+
+	"void main()\n"+
+	"{\n"+
+	"    vec4 eye = gl_ModelViewMatrix * vec4(position, 1.0);\n"+
+	"    gl_Position = gl_ProjectionMatrix * eye;\n"+
+	"    gl_PointSize = 0.5 * viewport_height * gl_ProjectionMatrix[1][1] *\n"+
+	"                   " + PARTICLE_SIZE + " / -eye.z;\n"+
+	"    // Full intensity during 75% of the life, then fade out\n"+
+	"    particle_color = vec4(color.rgb, min(4.0 * life, 1.0));\n"+
+	"}\n";
+
+	static final String point_fragment_shader_text =
+	"#version 120\n"+
+	"uniform sampler2D particle_tex;\n"+
+	"uniform float textured;\n"+
+	"varying vec4 particle_color;\n"+
+	"\n"+
+	"void main()\n"+
+	"{\n"+
+	"    vec4 texel = texture2D(particle_tex, gl_PointCoord);\n"+
+	"    gl_FragColor = particle_color * mix(vec4(1.0), texel, textured);\n"+
+	"}\n";
+
+	static int point_program;
+	static int uloc_viewport_height, uloc_textured;
+	static int aloc_position, aloc_color, aloc_life;
+
+	// Buffer object the particle records are streamed through
+	static StreamingVertexBuffer point_stream;
+
+	//========================================================================
+	// Build the point sprite program and its buffer. Returns false if the
+	// shaders cannot be used, in which case the caller draws quads instead.
+	//========================================================================
+
+	static boolean init_point_sprites()
+	{
+	    point_program = Shaders.make_shader_program(point_vertex_shader_text,
+	                                                point_fragment_shader_text);
+	    if (point_program == 0)
+	        return false;
+
+	    glUseProgram(point_program);
+	    glUniform1i(glGetUniformLocation(point_program, "particle_tex"), 0);
+	    uloc_viewport_height = glGetUniformLocation(point_program, "viewport_height");
+	    uloc_textured        = glGetUniformLocation(point_program, "textured");
+	    aloc_position = glGetAttribLocation(point_program, "position");
+	    aloc_color    = glGetAttribLocation(point_program, "color");
+	    aloc_life     = glGetAttribLocation(point_program, "life");
+	    glUseProgram(0);
+
+	    point_stream = new StreamingVertexBuffer(engine.store().capacity * POINT_WORDS * 4);
+
+	    // Without buffer streaming the records of a whole frame go through
+	    // the native buffer
+	    if (point_stream.mode == StreamingVertexBuffer.CLIENT &&
+	        point_stream.segment_size > nativeBuffer.capacity())
+	        allocate(point_stream.segment_size);
+
+	    return true;
+	}
+
+	// Store the record of particle i of the frame at the given slot
+	static void pack_point(FloatBuffer fb, IntBuffer ib, int slot, Snapshot frame, int i){
+		int w = slot * POINT_WORDS;
+		fb.put(w,     frame.xyz[3 * i]);
+		fb.put(w + 1, frame.xyz[3 * i + 1]);
+		fb.put(w + 2, frame.xyz[3 * i + 2]);
+		ib.put(w + 3, frame.rgba[i]);
+		fb.put(w + 4, frame.life[i]);
+	}
+
+	static void draw_particle_points(Snapshot frame)
+	{
+	    int i;
+	    final int stride = POINT_WORDS * 4;
+
+	    // Don't update z-buffer, since all particles are transparent!
+	    glDepthMask(false);
+
+	    glEnable(GL_BLEND);
+	    glBlendFunc(GL_SRC_ALPHA, GL_ONE);
+
+	    glEnable(GL_VERTEX_PROGRAM_POINT_SIZE);
+	    glEnable(GL_POINT_SPRITE);
+
+	    glBindTexture(GL_TEXTURE_2D, particle_tex_id);
+
+	    glUseProgram(point_program);
+	    glUniform1f(uloc_viewport_height, viewport_height);
+	    glUniform1f(uloc_textured, wireframe ? 0.f : 1.f);
+
+	    glEnableVertexAttribArray(aloc_position);
+	    glEnableVertexAttribArray(aloc_color);
+	    glEnableVertexAttribArray(aloc_life);
+
+	    if (point_stream.mode != StreamingVertexBuffer.CLIENT)
+	    {
+	        point_stream.begin(frame.count * stride);
+
+	        for (i = 0;  i < frame.count;  i++)
+	            pack_point(point_stream.floats, point_stream.ints, i, frame, i);
+
+	        long offset = point_stream.end();
+
+	        glVertexAttribPointer(aloc_position, 3, GL_FLOAT, false, stride, offset);
+	        glVertexAttribPointer(aloc_color, 4, GL_UNSIGNED_BYTE, true, stride, offset + 12);
+	        glVertexAttribPointer(aloc_life, 1, GL_FLOAT, false, stride, offset + 16);
+	        glDrawArrays(GL_POINTS, 0, frame.count);
+
+	        point_stream.fence();
+	        glBindBuffer(GL_ARRAY_BUFFER, 0);
+	    }
+	    else
+	    {
+	        for (i = 0;  i < frame.count;  i++)
+	            pack_point(floatBuffer, intBuffer, i, frame, i);
+
+	        nativeBuffer.clear();
+	        glVertexAttribPointer(aloc_position, 3, GL_FLOAT, false, stride, nativeBuffer);
+	        nativeBuffer.position(12);
+	        glVertexAttribPointer(aloc_color, 4, GL_UNSIGNED_BYTE, true, stride, nativeBuffer);
+	        nativeBuffer.position(16);
+	        glVertexAttribPointer(aloc_life, 1, GL_FLOAT, false, stride, nativeBuffer);
+	        nativeBuffer.clear();
+	        glDrawArrays(GL_POINTS, 0, frame.count);
+	    }
+
+	    glDisableVertexAttribArray(aloc_position);
+	    glDisableVertexAttribArray(aloc_color);
+	    glDisableVertexAttribArray(aloc_life);
+
+	    glUseProgram(0);
+
+	    glDisable(GL_POINT_SPRITE);
+	    glDisable(GL_VERTEX_PROGRAM_POINT_SIZE);
+	    glDisable(GL_BLEND);
+
+	    glDepthMask(true);
+	}
+
+
 	//========================================================================
 	// Fountain geometry specification
 	//========================================================================
@@ -759,7 +782,7 @@ final class Particles extends TestCommon{
 	// Position and configure light sources
 	//========================================================================
 
-	static void setup_lights()
+	static void setup_lights(Snapshot frame)
 	{
 	    float l1pos[] = new float[4], l1amb[] = new float[4], l1dif[] = new float[4], l1spec[] = new float[4];
 	    float l2pos[] = new float[4], l2amb[] = new float[4], l2dif[] = new float[4], l2spec[] = new float[4];
@@ -784,9 +807,9 @@ final class Particles extends TestCommon{
 	    glLightfv(GL_LIGHT2, GL_AMBIENT, wrap(l2amb));
 	    glLightfv(GL_LIGHT2, GL_DIFFUSE, wrap(l2dif));
 	    glLightfv(GL_LIGHT2, GL_SPECULAR, wrap(l2spec));
-	    glLightfv(GL_LIGHT3, GL_POSITION, wrap(glow_pos));
-	    glLightfv(GL_LIGHT3, GL_DIFFUSE, wrap(glow_color));
-	    glLightfv(GL_LIGHT3, GL_SPECULAR, wrap(glow_color));
+	    glLightfv(GL_LIGHT3, GL_POSITION, wrap(frame.glow_pos));
+	    glLightfv(GL_LIGHT3, GL_DIFFUSE, wrap(frame.glow_color));
+	    glLightfv(GL_LIGHT3, GL_SPECULAR, wrap(frame.glow_color));
 
 	    glEnable(GL_LIGHT1);
 	    glEnable(GL_LIGHT2);
@@ -802,11 +825,24 @@ final class Particles extends TestCommon{
 	{
 	    double xpos, ypos, zpos, angle_x, angle_y, angle_z;
 	    float dt;
+	    Snapshot frame;
 
 	    // Calculate frame-to-frame delta time
 	    dt = (float) (t - t_old);
 	    t_old = t;
 
+	    if (!USE_MULTI_THREAD)
+	    {
+	        engine.advance(t, dt);
+	        snapshot_particles(snapshots.back());
+	        snapshots.publish();
+	    }
+
+	    // Pick up the latest particle frame and tell the physics thread how far
+	    // it should simulate next
+	    frame = snapshots.acquire();
+	    thread_sync.t = t;
+
 	    glClearColor(0.1f, 0.1f, 0.1f, 1.f);
 	    glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
 
@@ -838,7 +874,7 @@ final class Particles extends TestCommon{
 	    glCullFace(GL_BACK);
 	    glEnable(GL_CULL_FACE);
 
-	    setup_lights();
+	    setup_lights(frame);
 	    glEnable(GL_LIGHTING);
 
 	    glEnable(GL_FOG);
@@ -858,7 +894,10 @@ final class Particles extends TestCommon{
 	    glDisable(GL_FOG);
 
 	    // Particles must be drawn after all solid objects have been drawn
-	    draw_particles(window, t, dt);
+	    if (render_mode == RENDER_POINTS)
+	        draw_particle_points(frame);
+	    else
+	        draw_particles(window, frame);
 
 	    // Z-buffer not needed anymore
 	    glDisable(GL_DEPTH_TEST);
@@ -873,6 +912,7 @@ final class Particles extends TestCommon{
 	{
 	    glViewport(0, 0, width, height);
 	    aspect_ratio = height != 0 ? width / (float) height : 1.f;
+	    viewport_height = height;
 	}
 
 
@@ -907,39 +947,33 @@ final class Particles extends TestCommon{
 
 	static int physics_thread_main(long window)
 	{
+	    double t, t_old = 0.0;
+	    long deadline;
+
 	    for (;;)
 	    {
-//	        mtx_lock(&thread_sync.particles_lock);
-	    	synchronized (particles_lock) {
-	    		
-	        // Wait for particle drawing to be done
+	        // Wait for the drawing thread to pick up the previous frame. This
+	        // is a plain spin/park on the exchange, so neither thread ever
+	        // blocks the other on a lock.
+	        deadline = System.nanoTime() + PHYSICS_WAIT_TIMEOUT;
 	        while (glfwWindowShouldClose(window) == 0 &&
-	               thread_sync.p_frame > thread_sync.d_frame)
+	               !snapshots.consumed() &&
+	               System.nanoTime() < deadline)
 	        {
-//	            struct timespec ts;
-//	            clock_gettime(CLOCK_REALTIME, &ts);
-//	            ts.tv_nsec += 100000000;
-//	            cnd_timedwait(&thread_sync.d_done, &thread_sync.particles_lock, &ts);
-	        	try {
-					particles_lock.wait(300);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+	            LockSupport.parkNanos(100000L);
 	        }
 
 	        if (glfwWindowShouldClose(window) != 0)
 	            break;
 
-	        // Update particles
-	        particle_engine(thread_sync.t, thread_sync.dt);
+	        // Update particles up to the time of the last drawn frame
+	        t = thread_sync.t;
+	        engine.advance(t, (float) (t - t_old));
+	        t_old = t;
 
-	        // Update frame counter
-	        thread_sync.p_frame++;
-
-	        // Unlock mutex and signal drawing thread
-//	        mtx_unlock(&thread_sync.particles_lock);
-//	        cnd_signal(&thread_sync.p_done);
-	    	}
+	        // Hand the new frame over to the drawing thread
+	        snapshot_particles(snapshots.back());
+	        snapshots.publish();
 	    }
 
 	    return 0;
@@ -958,24 +992,62 @@ final class Particles extends TestCommon{
 	    long window;
 	    long monitor = NULL;
 
+	    boolean fullscreen = false;
+	    int max_particles = DEFAULT_MAX_PARTICLES;
+	    ForkJoinPool physics_pool = null;
+
+	    try {
+			Options options = new Options();
+			options.addOption("f", "Run in full screen");
+			options.addOption("h", "Display this help");
+			options.addOption("j", true, "Number of physics threads");
+			options.addOption("n", true, "Maximum number of particles");
+			options.addOption("r", true, "Particle render mode (quads or points)");
+			options.addOption("s", "Run program as single thread");
+
+			CommandLineParser parser = new DefaultParser();
+			CommandLine cmd = parser.parse(options, argv);
+
+			if(cmd.hasOption("h")) {
+				usage();
+				exit(EXIT_SUCCESS);
+			}
+			if(cmd.hasOption("f"))
+				fullscreen = true;
+			if(cmd.hasOption("s"))
+				USE_MULTI_THREAD = false;
+			if(cmd.hasOption("n"))
+				max_particles = Integer.parseInt(cmd.getOptionValue("n"));
+			if(cmd.hasOption("r"))
+			{
+				String mode = cmd.getOptionValue("r");
+				if (mode.equals("points"))
+					render_mode = RENDER_POINTS;
+				else if (!mode.equals("quads"))
+					throw new IllegalArgumentException("Unknown render mode: " + mode);
+			}
+			if(cmd.hasOption("j"))
+			{
+				int threads = Integer.parseInt(cmd.getOptionValue("j"));
+				if (threads > 1)
+					physics_pool = new ForkJoinPool(threads);
+			}
+
+			engine = new ParticleEngine(max_particles, new Random(), physics_pool);
+		} catch (ParseException | IllegalArgumentException e) {
+			fprintf("%s\n", e.getMessage());
+			usage();
+			exit(EXIT_FAILURE);
+		}
+
 	    if (glfwInit() == 0)
 	    {
 	        fprintf("Failed to initialize GLFW\n");
 	        exit(EXIT_FAILURE);
 	    }
 
-//	    while ((ch = getopt(argc, argv, "fh")) != -1)
-//	    {
-//	        switch (ch)
-//	        {
-//	            case 'f':
-//	                monitor = glfwGetPrimaryMonitor();
-//	                break;
-//	            case 'h':
-//	                usage();
-//	                exit(EXIT_SUCCESS);
-//	        }
-//	    }
+	    if (fullscreen)
+	        monitor = glfwGetPrimaryMonitor();
 
 	    if (monitor != NULL)
 	    {
@@ -1059,11 +1131,21 @@ final class Particles extends TestCommon{
 	    glPolygonMode(GL_FRONT_AND_BACK, GL_FILL);
 	    wireframe = false;
 
-	    // Set initial times
-	    thread_sync.t  = 0.0;
-	    thread_sync.dt = 0.001f;
-	    thread_sync.p_frame = 0;
-	    thread_sync.d_frame = 0;
+	    if (render_mode == RENDER_POINTS && !init_point_sprites())
+	    {
+	        fprintf("Point sprites are not available, drawing quads instead\n");
+	        render_mode = RENDER_QUADS;
+	    }
+
+	    // Room for the quads of every particle in one frame
+	    if (render_mode == RENDER_QUADS)
+	    {
+	        vertex_stream = new StreamingVertexBuffer(
+	                engine.store().capacity * PARTICLE_VERTS * VERTEX_WORDS * 4);
+	    }
+
+	    // Set initial time
+	    thread_sync.t = 0.0;
 
 //	    mtx_init(&thread_sync.particles_lock, mtx_timed);
 //	    cnd_init(&thread_sync.p_done);
@@ -1089,7 +1171,7 @@ final class Particles extends TestCommon{
 
 	    while (glfwWindowShouldClose(window) == 0)
 	    {
-	        draw_scene(window, glfwGetTime());
+	        draw_scene(window, clock.time());
 
 	        glfwSwapBuffers(window);
 	        glfwPollEvents();
@@ -1104,6 +1186,17 @@ final class Particles extends TestCommon{
 			}
 	    }
 
+	    printf("Particle frames dropped: %d, duplicated: %d\n",
+	           snapshots.dropped.get(), snapshots.duplicated.get());
+
+	    if (vertex_stream != null)
+	        vertex_stream.destroy();
+	    if (point_stream != null)
+	    {
+	        point_stream.destroy();
+	        glDeleteProgram(point_program);
+	    }
+
 	    glfwDestroyWindow(window);
 	    glfwTerminate();
 
@@ -1114,39 +1207,74 @@ final class Particles extends TestCommon{
 		float x,y,z;
 	}
 	
-	// This class is used for interleaved vertex arrays (see the
-	// draw_particles function)
-	//
-	// NOTE: This structure SHOULD be packed on most systems. It uses 32-bit fields
-	// on 32-bit boundaries, and is a multiple of 64 bits in total (6x32=3x64). If
-	// it does not work, try using pragmas or whatever to force the structure to be
-	// packed.
-	final static class Vertex{
-		float s, t;         // Texture coordinates
-	    int  rgba;          // Color (four ubytes packed into an uint)
-	    float x, y, z;      // Vertex coordinates
-	}
-	
 	// Thread synchronization
 	final static class ThreadSync{
-		double    t;         // Time (s)
-	    float     dt;        // Time since last frame (s)
-	    int       p_frame;   // Particle physics frame number
-	    int       d_frame;   // Particle draw frame number
+		volatile double t;   // Time of the last drawn frame (s)
 	}
-	
-	//========================================================================
-	// Particle system global variables
-	//========================================================================
 
-	// This structure holds all state for a single particle
-	final static class Particle{
-		float x,y,z;     // Position in space
-	    float vx,vy,vz;  // Velocity vector
-	    float r,g,b;     // Color of particle
-	    float life;      // Life of particle (1.0 = newborn, < 0.0 = dead)
-	    boolean  active;    // Tells if this particle is active
+	// Everything needed to draw one frame of particles
+	final static class Snapshot{
+		int count;                               // Number of particles
+		float[] xyz = new float[0];              // Particle positions
+		int[] rgba = new int[0];                 // Particle colors
+		float[] life = new float[0];             // Particle lives
+		final float[] glow_pos = new float[4];   // Fountain glow light
+		final float[] glow_color = new float[4];
+
+		void ensure_capacity(int n){
+			if (rgba.length < n)
+			{
+				xyz = new float[3 * n];
+				rgba = new int[n];
+				life = new float[n];
+			}
+		}
+	}
+
+	// Lock-free triple buffer of particle frames. The physics thread owns the
+	// "back" snapshot and the drawing thread owns the "front" one. The third
+	// one sits in the middle and is swapped with either side through a single
+	// atomic index, which also carries a flag telling whether it holds a frame
+	// that has not been drawn yet.
+	final static class SnapshotExchange{
+		static final int INDEX_MASK = 3;
+		static final int FRESH = 4;
+
+		final Snapshot[] buffers = { new Snapshot(), new Snapshot(), new Snapshot() };
+		final AtomicInteger middle = new AtomicInteger(1);
+		int back = 0;                            // Physics thread only
+		int front = 2;                           // Drawing thread only
+
+		// Frames published over one that was never drawn
+		final AtomicInteger dropped = new AtomicInteger();
+		// Frames drawn again because no new one was ready
+		final AtomicInteger duplicated = new AtomicInteger();
+
+		Snapshot back(){
+			return buffers[back];
+		}
+
+		// Publish the back snapshot and take over the middle one
+		void publish(){
+			int prev = middle.getAndSet(back | FRESH);
+			if ((prev & FRESH) != 0)
+				dropped.incrementAndGet();
+			back = prev & INDEX_MASK;
+		}
+
+		// Returns true if the last published frame has been picked up
+		boolean consumed(){
+			return (middle.get() & FRESH) == 0;
+		}
+
+		// Return the most recent frame
+		Snapshot acquire(){
+			if ((middle.get() & FRESH) == 0)
+				duplicated.incrementAndGet();
+			else
+				front = middle.getAndSet(front) & INDEX_MASK;
+			return buffers[front];
+		}
 	}
-	
 	
 }
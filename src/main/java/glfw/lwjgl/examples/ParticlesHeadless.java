@@ -0,0 +1,132 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Headless driver for the particle fountain physics
+//
+// Steps the same ParticleEngine as the Particles example with a seeded
+// random generator and a fixed frame clock, without creating a window or
+// an OpenGL context. It prints a checksum of the final particle state,
+// which only depends on the seed, particle count, frame count and frame
+// rate (not on the number of threads), and the physics throughput.
+//========================================================================
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import glfw.lwjgl.tests.TestCommon;
+
+final class ParticlesHeadless extends TestCommon{
+
+	static final int DEFAULT_FRAMES = 600;
+	static final int DEFAULT_RATE = 60;
+	static final long DEFAULT_SEED = 1;
+
+	// Clock ticking a fixed amount per frame
+	final static class FrameClock implements ParticleSimulation.Clock{
+		final double frame_time;
+		long frame;
+
+		FrameClock(int rate){
+			frame_time = 1.0 / rate;
+		}
+
+		public double time() {
+			return frame * frame_time;
+		}
+	}
+
+	static void usage()
+	{
+	    printf("Usage: particles-headless [-h] [-n count] [-f frames] [-r rate] [-s seed] [-j threads]\n");
+	    printf("Options:\n");
+	    printf(" -f   Number of frames to simulate (default is %d)\n", DEFAULT_FRAMES);
+	    printf(" -h   Display this help\n");
+	    printf(" -j   Update particle physics on this many cores (default is one)\n");
+	    printf(" -n   Maximum number of particles (default is %d)\n", ParticleEngine.DEFAULT_MAX_PARTICLES);
+	    printf(" -r   Frames per simulated second (default is %d)\n", DEFAULT_RATE);
+	    printf(" -s   Random seed (default is %d)\n", DEFAULT_SEED);
+	}
+
+	public static void main(String[] argv)
+	{
+	    int frames = DEFAULT_FRAMES;
+	    int rate = DEFAULT_RATE;
+	    int max_particles = ParticleEngine.DEFAULT_MAX_PARTICLES;
+	    int threads = 1;
+	    long seed = DEFAULT_SEED;
+
+	    try {
+			Options options = new Options();
+			options.addOption("f", true, "Number of frames");
+			options.addOption("h", "Display this help");
+			options.addOption("j", true, "Number of physics threads");
+			options.addOption("n", true, "Maximum number of particles");
+			options.addOption("r", true, "Frame rate");
+			options.addOption("s", true, "Random seed");
+
+			CommandLineParser parser = new DefaultParser();
+			CommandLine cmd = parser.parse(options, argv);
+
+			if(cmd.hasOption("h")) {
+				usage();
+				exit(EXIT_SUCCESS);
+			}
+			if(cmd.hasOption("f"))
+				frames = Integer.parseInt(cmd.getOptionValue("f"));
+			if(cmd.hasOption("j"))
+				threads = Integer.parseInt(cmd.getOptionValue("j"));
+			if(cmd.hasOption("n"))
+				max_particles = Integer.parseInt(cmd.getOptionValue("n"));
+			if(cmd.hasOption("r"))
+				rate = Integer.parseInt(cmd.getOptionValue("r"));
+			if(cmd.hasOption("s"))
+				seed = Long.parseLong(cmd.getOptionValue("s"));
+
+			if (frames < 0 || rate <= 0)
+				throw new IllegalArgumentException("Frame count and rate must be positive");
+		} catch (ParseException | IllegalArgumentException e) {
+			fprintf("%s\n", e.getMessage());
+			usage();
+			exit(EXIT_FAILURE);
+		}
+
+	    ForkJoinPool physics_pool = threads > 1 ? new ForkJoinPool(threads) : null;
+	    ParticleSimulation engine = new ParticleEngine(max_particles, new Random(seed), physics_pool);
+	    FrameClock clock = new FrameClock(rate);
+
+	    double t, t_old = 0.0;
+	    long updates = 0;
+	    long start = System.nanoTime();
+
+	    while (clock.frame < frames)
+	    {
+	        clock.frame++;
+	        t = clock.time();
+	        engine.advance(t, (float) (t - t_old));
+	        t_old = t;
+
+	        updates += engine.store().active_count();
+	    }
+
+	    double seconds = (System.nanoTime() - start) * 1e-9;
+
+	    if (physics_pool != null)
+	        physics_pool.shutdown();
+
+	    printf("Particles: %d, frames: %d at %d Hz, seed: %d, threads: %d\n",
+	           max_particles, frames, rate, seed, threads);
+	    printf("Active particles: %d\n", engine.store().active_count());
+	    printf("Checksum: %016x\n", engine.store().checksum());
+	    printf("Time: %.3f s (%.3f ms/frame, %.2f M particle-frames/s)\n",
+	           seconds, frames > 0 ? seconds * 1e3 / frames : 0.0,
+	           seconds > 0 ? updates / seconds * 1e-6 : 0.0);
+
+	    exit(EXIT_SUCCESS);
+	}
+}
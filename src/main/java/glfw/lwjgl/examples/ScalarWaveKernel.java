@@ -0,0 +1,45 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Plain Java implementation of the Wave solver loops
+//========================================================================
+
+final class ScalarWaveKernel implements WaveKernel {
+
+	public void speeds(double[] p, double[] vx, double[] vy, int width, int height,
+	                   int y0, int y1, double time_step)
+	{
+	    int x, y, row, up;
+
+	    for (y = y0;  y < y1;  y++)
+	    {
+	        row = y * width;
+	        up = ((y + 1) % height) * width;
+
+	        for (x = 0;  x < width - 1;  x++)
+	        {
+	            vx[row + x] += (p[row + x] - p[row + x + 1]) * time_step;
+	            vy[row + x] += (p[row + x] - p[up + x]) * time_step;
+	        }
+	        vx[row + x] += (p[row + x] - p[row]) * time_step;
+	        vy[row + x] += (p[row + x] - p[up + x]) * time_step;
+	    }
+	}
+
+	public void pressure(double[] p, double[] vx, double[] vy, int width, int height,
+	                     int y0, int y1, double time_step)
+	{
+	    int x, y, row;
+
+	    for (y = Math.max(y0, 1);  y < y1;  y++)
+	    {
+	        row = y * width;
+
+	        for (x = 1;  x < width;  x++)
+	        {
+	            p[row + x] += (vx[row + x - 1] - vx[row + x] +
+	                           vy[row + x - width] - vy[row + x]) * time_step;
+	        }
+	    }
+	}
+}
@@ -0,0 +1,127 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// GLSL helpers shared by the examples that draw with shaders
+//========================================================================
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import glfw.lwjgl.tests.TestCommon;
+
+final class Shaders extends TestCommon{
+
+	/* Creates a shader object of the specified type using the specified text
+	 */
+	static int make_shader(int type, String text)
+	{
+	    int shader;
+	    int shader_ok;
+	    shader = glCreateShader(type);
+	    if (shader != 0)
+	    {
+	    	glShaderSource(shader, text);
+	        glCompileShader(shader);
+	        shader_ok = glGetShaderi(shader, GL_COMPILE_STATUS);
+	        if (shader_ok != GL_TRUE)
+	        {
+	            fprintf("ERROR: Failed to compile %s shader\n", (type == GL_FRAGMENT_SHADER) ? "fragment" : "vertex" );
+//	            glGetShaderInfoLog(shader, 8192, &log_length,info_log);
+	            String info_log = glGetShaderInfoLog(shader);
+	            fprintf("ERROR: \n%s\n\n", info_log);
+	            glDeleteShader(shader);
+	            shader = 0;
+	        }
+	    }
+	    return shader;
+	}
+
+	/* Creates a program object using the specified vertex and fragment text
+	 */
+	static int make_shader_program(String vs_text,String fs_text)
+	{
+	    int program = 0;
+	    int program_ok;
+	    int vertex_shader = 0;
+	    int fragment_shader = 0;
+	    vertex_shader = make_shader(GL_VERTEX_SHADER, vs_text);
+	    if (vertex_shader != 0)
+	    {
+	        fragment_shader = make_shader(GL_FRAGMENT_SHADER, fs_text);
+	        if (fragment_shader != 0)
+	        {
+	            /* make the program that connect the two shader and link it */
+	            program = glCreateProgram();
+	            if (program != 0)
+	            {
+	                /* attach both shader and link */
+	                glAttachShader(program, vertex_shader);
+	                glAttachShader(program, fragment_shader);
+	                glLinkProgram(program);
+	                program_ok = glGetProgrami(program, GL_LINK_STATUS);
+
+	                if (program_ok != GL_TRUE)
+	                {
+	                    fprintf("ERROR, failed to link shader program\n");
+//	                    glGetProgramInfoLog(program, 8192, &log_length, info_log);
+	                    String info_log = glGetProgramInfoLog(program);
+	                    fprintf("ERROR: \n%s\n\n", info_log);
+	                    glDeleteProgram(program);
+	                    glDeleteShader(fragment_shader);
+	                    glDeleteShader(vertex_shader);
+	                    program = 0;
+	                }
+	            }
+	        }
+	        else
+	        {
+	            fprintf("ERROR: Unable to load fragment shader\n");
+	            glDeleteShader(vertex_shader);
+	        }
+	    }
+	    else
+	    {
+	        fprintf("ERROR: Unable to load vertex shader\n");
+	    }
+	    return program;
+	}
+
+	/* Creates a program object with only the specified vertex text, whose
+	 * output varyings are captured with transform feedback (one buffer each)
+	 */
+	static int make_feedback_program(String vs_text, CharSequence... varyings)
+	{
+	    int program = 0;
+	    int program_ok;
+	    int vertex_shader = 0;
+	    vertex_shader = make_shader(GL_VERTEX_SHADER, vs_text);
+	    if (vertex_shader != 0)
+	    {
+	        program = glCreateProgram();
+	        if (program != 0)
+	        {
+	            /* the varyings must be chosen before linking */
+	            glAttachShader(program, vertex_shader);
+	            glTransformFeedbackVaryings(program, varyings, GL_SEPARATE_ATTRIBS);
+	            glLinkProgram(program);
+	            program_ok = glGetProgrami(program, GL_LINK_STATUS);
+
+	            if (program_ok != GL_TRUE)
+	            {
+	                fprintf("ERROR, failed to link feedback program\n");
+	                String info_log = glGetProgramInfoLog(program);
+	                fprintf("ERROR: \n%s\n\n", info_log);
+	                glDeleteProgram(program);
+	                glDeleteShader(vertex_shader);
+	                program = 0;
+	            }
+	        }
+	    }
+	    else
+	    {
+	        fprintf("ERROR: Unable to load vertex shader\n");
+	    }
+	    return program;
+	}
+}
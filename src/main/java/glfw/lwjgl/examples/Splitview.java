@@ -79,7 +79,9 @@ final class Splitview extends TestCommon{
 	static void drawTorus()
 	{
 	    int    i, j, k;
-	    double s, t, x, y, z, nx, ny, nz, scale, twopi;
+	    int    s, t;
+	    double x, y, z, nx, ny, nz, scale;
+	    TrigTable minor, major;
 
 	    if (torus_list == 0)
 	    {
@@ -87,8 +89,10 @@ final class Splitview extends TestCommon{
 	        torus_list = glGenLists(1);
 	        glNewList(torus_list, GL_COMPILE_AND_EXECUTE);
 
-	        // Draw torus
-	        twopi = 2.0 * Math.PI;
+	        // Draw torus. The minor angles are taken halfway between the
+	        // steps of TORUS_MINOR_RES, so from a table of twice as many.
+	        minor = TrigTable.of(2 * (int) TORUS_MINOR_RES);
+	        major = TrigTable.of((int) TORUS_MAJOR_RES);
 	        for (i = 0;  i < TORUS_MINOR_RES;  i++)
 	        {
 	            glBegin(GL_QUAD_STRIP);
@@ -96,18 +100,18 @@ final class Splitview extends TestCommon{
 	            {
 	                for (k = 1;  k >= 0;  k--)
 	                {
-	                    s = (i + k) % TORUS_MINOR_RES + 0.5;
-	                    t = j % TORUS_MAJOR_RES;
+	                    s = 2 * ((i + k) % (int) TORUS_MINOR_RES) + 1;
+	                    t = j;
 
 	                    // Calculate point on surface
-	                    x = (TORUS_MAJOR + TORUS_MINOR * cos(s * twopi / TORUS_MINOR_RES)) * cos(t * twopi / TORUS_MAJOR_RES);
-	                    y = TORUS_MINOR * sin(s * twopi / TORUS_MINOR_RES);
-	                    z = (TORUS_MAJOR + TORUS_MINOR * cos(s * twopi / TORUS_MINOR_RES)) * sin(t * twopi / TORUS_MAJOR_RES);
+	                    x = (TORUS_MAJOR + TORUS_MINOR * minor.cos(s)) * major.cos(t);
+	                    y = TORUS_MINOR * minor.sin(s);
+	                    z = (TORUS_MAJOR + TORUS_MINOR * minor.cos(s)) * major.sin(t);
 
 	                    // Calculate surface normal
-	                    nx = x - TORUS_MAJOR * cos(t * twopi / TORUS_MAJOR_RES);
+	                    nx = x - TORUS_MAJOR * major.cos(t);
 	                    ny = y;
-	                    nz = z - TORUS_MAJOR * sin(t * twopi / TORUS_MAJOR_RES);
+	                    nz = z - TORUS_MAJOR * major.sin(t);
 	                    scale = 1.0 / Math.sqrt(nx*nx + ny*ny + nz*nz);
 	                    nx *= scale;
 	                    ny *= scale;
@@ -0,0 +1,210 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Streaming vertex buffer for geometry that is rebuilt every frame
+//
+// The CPU must never write vertices the GPU may still be reading from an
+// earlier frame. Depending on what the driver offers, one of these
+// strategies is used:
+//
+//   PERSISTENT  GL_ARB_buffer_storage: the buffer is split into SEGMENTS
+//               parts that are written in turn and stay mapped for the
+//               lifetime of the buffer. A fence per segment tells when the
+//               GPU is done with it.
+//   ORPHAN      GL_ARB_map_buffer_range: each frame re-specifies the
+//               buffer storage (orphaning the old one, which the driver
+//               keeps alive until the GPU is done) and maps it for writing.
+//   CLIENT      Neither is present: the caller must keep using client-side
+//               vertex arrays.
+//========================================================================
+
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL44.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+final class StreamingVertexBuffer {
+
+	static final int CLIENT     = 0;
+	static final int ORPHAN     = 1;
+	static final int PERSISTENT = 2;
+
+	static final int SEGMENTS = 3;
+
+	// Time to wait for the GPU to release a segment before writing anyway (ns)
+	static final long FENCE_TIMEOUT = 100000000L;
+
+	final int mode;
+	final int segment_size;       // Bytes
+	final int buffer;             // GL buffer object (0 in CLIENT mode)
+
+	// Views of the segment that is currently being written. The caller
+	// writes with absolute puts starting at index 0.
+	FloatBuffer floats;
+	IntBuffer ints;
+
+	private int segment;
+	private ByteBuffer mapped;
+	private final FloatBuffer[] segment_floats = new FloatBuffer[SEGMENTS];
+	private final IntBuffer[] segment_ints = new IntBuffer[SEGMENTS];
+	private final long[] fences = new long[SEGMENTS];
+
+	//========================================================================
+	// Create a buffer holding at most segment_size bytes per frame, using
+	// the best strategy supported by the current context
+	//========================================================================
+
+	StreamingVertexBuffer(int segment_size)
+	{
+		this(segment_size, select_mode());
+	}
+
+	StreamingVertexBuffer(int segment_size, int mode)
+	{
+		if (segment_size <= 0)
+			throw new IllegalArgumentException("segment size must be positive: " + segment_size);
+
+		this.segment_size = segment_size;
+		this.mode = mode;
+
+		if (mode == CLIENT)
+		{
+			buffer = 0;
+			return;
+		}
+
+		buffer = glGenBuffers();
+		glBindBuffer(GL_ARRAY_BUFFER, buffer);
+
+		if (mode == PERSISTENT)
+		{
+			int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+			long size = (long) segment_size * SEGMENTS;
+
+			glBufferStorage(GL_ARRAY_BUFFER, size, flags);
+			mapped = glMapBufferRange(GL_ARRAY_BUFFER, 0, size, flags).order(ByteOrder.nativeOrder());
+
+			// The mapping never moves, so the per-segment views are made once
+			for (int i = 0;  i < SEGMENTS;  i++)
+			{
+				mapped.clear();
+				mapped.position(i * segment_size).limit((i + 1) * segment_size);
+
+				ByteBuffer part = mapped.slice().order(ByteOrder.nativeOrder());
+				segment_floats[i] = part.asFloatBuffer();
+				segment_ints[i] = part.asIntBuffer();
+			}
+		}
+
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+
+	static int select_mode()
+	{
+		if (glfwExtensionSupported("GL_ARB_buffer_storage") != 0)
+			return PERSISTENT;
+		if (glfwExtensionSupported("GL_ARB_map_buffer_range") != 0)
+			return ORPHAN;
+
+		return CLIENT;
+	}
+
+	//========================================================================
+	// Make the next segment writable through floats/ints. At most "size"
+	// bytes may be written. The buffer is left bound to GL_ARRAY_BUFFER.
+	//========================================================================
+
+	void begin(int size)
+	{
+		if (size > segment_size)
+			throw new IllegalArgumentException("stream segment overflow: " + size + " > " + segment_size);
+
+		glBindBuffer(GL_ARRAY_BUFFER, buffer);
+
+		if (mode == PERSISTENT)
+		{
+			segment = (segment + 1) % SEGMENTS;
+
+			// Wait until the GPU has finished drawing from this segment
+			if (fences[segment] != 0)
+			{
+				glClientWaitSync(fences[segment], GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT);
+				glDeleteSync(fences[segment]);
+				fences[segment] = 0;
+			}
+
+			floats = segment_floats[segment];
+			ints = segment_ints[segment];
+		}
+		else
+		{
+			// Orphan the old storage, so that mapping never stalls on the GPU
+			glBufferData(GL_ARRAY_BUFFER, segment_size, GL_STREAM_DRAW);
+
+			ByteBuffer map = glMapBufferRange(GL_ARRAY_BUFFER, 0, segment_size,
+			                                  GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT,
+			                                  mapped);
+			if (map != mapped)
+			{
+				mapped = map.order(ByteOrder.nativeOrder());
+				floats = mapped.asFloatBuffer();
+				ints = mapped.asIntBuffer();
+			}
+		}
+	}
+
+	//========================================================================
+	// Finish writing the current segment and return its byte offset in the
+	// buffer, for use as a vertex array pointer
+	//========================================================================
+
+	long end()
+	{
+		if (mode == PERSISTENT)
+			return (long) segment * segment_size;
+
+		glUnmapBuffer(GL_ARRAY_BUFFER);
+		return 0;
+	}
+
+	//========================================================================
+	// Mark the current segment as in use by the draw calls issued since
+	// end(). Must be called after the last draw call reading the segment.
+	//========================================================================
+
+	void fence()
+	{
+		if (mode == PERSISTENT)
+			fences[segment] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+	}
+
+	void destroy()
+	{
+		for (int i = 0;  i < SEGMENTS;  i++)
+		{
+			if (fences[i] != 0)
+			{
+				glDeleteSync(fences[i]);
+				fences[i] = 0;
+			}
+		}
+
+		if (buffer != 0)
+		{
+			if (mode == PERSISTENT)
+			{
+				glBindBuffer(GL_ARRAY_BUFFER, buffer);
+				glUnmapBuffer(GL_ARRAY_BUFFER);
+				glBindBuffer(GL_ARRAY_BUFFER, 0);
+			}
+
+			glDeleteBuffers(buffer);
+		}
+	}
+}
@@ -0,0 +1,360 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Chunked level-of-detail rendering for the HeightMap
+//
+// The map is cut into square patches of PATCH_QUADS quads. A patch can be
+// drawn at LEVELS levels of detail: level l keeps every 2^l-th row and
+// column of the patch, plus its last ones. Every frame each patch gets the
+// coarsest level whose geometric error (the largest height difference
+// between the full grid and the coarse triangles), seen from the camera
+// at the distance of the patch, stays below a tolerance in pixels.
+//
+// Where a patch meets a coarser neighbor, the vertices of the shared edge
+// that the neighbor does not have are moved back to the previous vertex it
+// does have. The triangles along that edge then fan out from the coarse
+// vertices, and both patches draw exactly the same edge, without cracks.
+//
+// The index list of a patch only depends on its shape, its level and the
+// levels its edges are snapped to. The indices are relative to the first
+// vertex of the patch, so each list is built once, kept in a single index
+// buffer and shared by all patches through glDrawElementsBaseVertex.
+//========================================================================
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL32.*;
+
+import java.nio.IntBuffer;
+import java.util.HashMap;
+
+import org.lwjgl.BufferUtils;
+
+final class TerrainChunks {
+
+	// Quads per side of a patch, and levels of detail down to one quad
+	static final int PATCH_QUADS = 64;
+	static final int LEVELS = 7;
+
+	// Edges of a patch, in the order of the snap levels in a list key
+	static final int EDGE_TOP = 0, EDGE_BOTTOM = 1, EDGE_LEFT = 2, EDGE_RIGHT = 3;
+
+	final float[][] map_vertices;
+	final int size;
+	final int patches;
+
+	// Per patch: height range, error of each level and chosen level
+	final float[] min_y, max_y;
+	final float[] errors;
+	final int[] patch_level;
+
+	// Index lists by key: offset and count in the index buffer
+	final HashMap<Integer, int[]> lists = new HashMap<Integer, int[]>();
+	final int[][] patch_list;
+	IntBuffer indices = BufferUtils.createIntBuffer(1 << 16);
+	boolean indices_changed;
+	int index_vbo;
+
+	// Triangles drawn by the last draw(), and totals
+	int triangles;
+	long total_triangles;
+	long frames;
+
+	TerrainChunks(float[][] map_vertices, int size)
+	{
+	    this.map_vertices = map_vertices;
+	    this.size = size;
+
+	    patches = (size - 1 + PATCH_QUADS - 1) / PATCH_QUADS;
+	    min_y = new float[patches * patches];
+	    max_y = new float[patches * patches];
+	    errors = new float[patches * patches * LEVELS];
+	    patch_level = new int[patches * patches];
+	    patch_list = new int[patches * patches][];
+
+	    update_rows(0, size);
+	}
+
+	// Quads along one side of the patches in row or column n
+	int patch_quads(int n)
+	{
+	    return Math.min(PATCH_QUADS, size - 1 - n * PATCH_QUADS);
+	}
+
+	float height(int row, int col)
+	{
+	    return map_vertices[1][row * size + col];
+	}
+
+	//========================================================================
+	// Recompute the height range and errors of the patches containing
+	// vertex rows [row0, row1), after their heights changed
+	//========================================================================
+
+	void update_rows(int row0, int row1)
+	{
+	    int pi, pj;
+
+	    if (row0 >= row1)
+	        return;
+
+	    // A patch also owns the first row of the next one
+	    for (pi = Math.max(row0 - 1, 0) / PATCH_QUADS;
+	         pi <= Math.min((row1 - 1) / PATCH_QUADS, patches - 1);  pi++)
+	    {
+	        for (pj = 0;  pj < patches;  pj++)
+	            update_patch(pi, pj);
+	    }
+	}
+
+	void update_patch(int pi, int pj)
+	{
+	    final int p = pi * patches + pj;
+	    final int r0 = pi * PATCH_QUADS, c0 = pj * PATCH_QUADS;
+	    final int rows = patch_quads(pi), cols = patch_quads(pj);
+	    int i, j, a, b, a1, b1, level, step;
+	    float lo = Float.MAX_VALUE, hi = -Float.MAX_VALUE;
+	    float h00, h01, h10, h11, u, v, h, error;
+
+	    for (i = 0;  i <= rows;  i++)
+	    {
+	        for (j = 0;  j <= cols;  j++)
+	        {
+	            h = height(r0 + i, c0 + j);
+	            lo = Math.min(lo, h);
+	            hi = Math.max(hi, h);
+	        }
+	    }
+	    min_y[p] = lo;
+	    max_y[p] = hi;
+
+	    // Compare each vertex with the coarse triangle it falls in. The cells
+	    // are split along the same diagonal as in make_list().
+	    errors[p * LEVELS] = 0.f;
+	    for (level = 1;  level < LEVELS;  level++)
+	    {
+	        step = 1 << level;
+	        error = errors[p * LEVELS + level - 1];
+
+	        for (a = 0;  a < rows;  a += step)
+	        {
+	            a1 = Math.min(a + step, rows);
+	            for (b = 0;  b < cols;  b += step)
+	            {
+	                b1 = Math.min(b + step, cols);
+	                h00 = height(r0 + a,  c0 + b);
+	                h01 = height(r0 + a,  c0 + b1);
+	                h10 = height(r0 + a1, c0 + b);
+	                h11 = height(r0 + a1, c0 + b1);
+
+	                for (i = a;  i <= a1;  i++)
+	                {
+	                    u = (float) (i - a) / (a1 - a);
+	                    for (j = b;  j <= b1;  j++)
+	                    {
+	                        v = (float) (j - b) / (b1 - b);
+	                        if (v >= u)
+	                            h = h00 + v * (h01 - h00) + u * (h11 - h01);
+	                        else
+	                            h = h00 + u * (h10 - h00) + v * (h11 - h10);
+	                        error = Math.max(error, Math.abs(h - height(r0 + i, c0 + j)));
+	                    }
+	                }
+	            }
+	        }
+	        errors[p * LEVELS + level] = error;
+	    }
+	}
+
+	//========================================================================
+	// Choose the level of every patch for a camera at (eye_x, eye_y, eye_z).
+	// pixels_per_unit is the size in pixels of one unit seen at a distance
+	// of one unit (half the viewport height times the projection's y scale).
+	//========================================================================
+
+	void select_levels(float eye_x, float eye_y, float eye_z,
+	                   float pixels_per_unit, float tolerance)
+	{
+	    int pi, pj, p, level;
+	    float dx, dy, dz, distance;
+
+	    for (pi = 0;  pi < patches;  pi++)
+	    {
+	        for (pj = 0;  pj < patches;  pj++)
+	        {
+	            p = pi * patches + pj;
+
+	            // Distance to the bounding box of the patch
+	            dx = outside(eye_x, map_vertices[0][pi * PATCH_QUADS * size],
+	                                map_vertices[0][(pi * PATCH_QUADS + patch_quads(pi)) * size]);
+	            dy = outside(eye_y, min_y[p], max_y[p]);
+	            dz = outside(eye_z, map_vertices[2][pj * PATCH_QUADS],
+	                                map_vertices[2][pj * PATCH_QUADS + patch_quads(pj)]);
+	            distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+	            for (level = LEVELS - 1;  level > 0;  level--)
+	            {
+	                if (errors[p * LEVELS + level] * pixels_per_unit <= tolerance * distance)
+	                    break;
+	            }
+	            patch_level[p] = level;
+	        }
+	    }
+	}
+
+	static float outside(float x, float lo, float hi)
+	{
+	    return x < lo ? lo - x : x > hi ? x - hi : 0.f;
+	}
+
+	//========================================================================
+	// Index lists
+	//========================================================================
+
+	// The level an edge is drawn at: its own, or the neighbor's if coarser
+	int edge_level(int level, int pi, int pj)
+	{
+	    if (pi < 0 || pj < 0 || pi >= patches || pj >= patches)
+	        return level;
+
+	    return Math.max(level, patch_level[pi * patches + pj]);
+	}
+
+	int[] find_list(int pi, int pj)
+	{
+	    final int level = patch_level[pi * patches + pj];
+	    final int rows = patch_quads(pi), cols = patch_quads(pj);
+	    int[] edges = {
+	        edge_level(level, pi - 1, pj),
+	        edge_level(level, pi + 1, pj),
+	        edge_level(level, pi, pj - 1),
+	        edge_level(level, pi, pj + 1)
+	    };
+	    int key = rows | cols << 7 | level << 14 |
+	              edges[EDGE_TOP] << 17 | edges[EDGE_BOTTOM] << 20 |
+	              edges[EDGE_LEFT] << 23 | edges[EDGE_RIGHT] << 26;
+	    int[] list = lists.get(key);
+
+	    if (list == null)
+	    {
+	        list = make_list(rows, cols, level, edges);
+	        lists.put(key, list);
+	    }
+	    return list;
+	}
+
+	// Position t on a side of n quads, moved back to the grid of the level
+	static int snap(int t, int n, int level)
+	{
+	    return t == n ? n : (t >> level) << level;
+	}
+
+	// Append the triangles of a patch of rows x cols quads at the given
+	// level, with its edges snapped to the given levels, to the index pool
+	int[] make_list(int rows, int cols, int level, int[] edges)
+	{
+	    final int step = 1 << level;
+	    final int offset = indices.position();
+	    int a, b, a1, b1, k;
+	    int[] ri = new int[6], rj = new int[6];
+
+	    for (a = 0;  a < rows;  a += step)
+	    {
+	        a1 = Math.min(a + step, rows);
+	        for (b = 0;  b < cols;  b += step)
+	        {
+	            b1 = Math.min(b + step, cols);
+
+	            // (a, b), (a, b1), (a1, b1) and (a, b), (a1, b1), (a1, b)
+	            ri[0] = a; rj[0] = b;  ri[1] = a;  rj[1] = b1; ri[2] = a1; rj[2] = b1;
+	            ri[3] = a; rj[3] = b;  ri[4] = a1; rj[4] = b1; ri[5] = a1; rj[5] = b;
+
+	            for (k = 0;  k < 6;  k++)
+	            {
+	                if (ri[k] == 0)
+	                    rj[k] = snap(rj[k], cols, edges[EDGE_TOP]);
+	                else if (ri[k] == rows)
+	                    rj[k] = snap(rj[k], cols, edges[EDGE_BOTTOM]);
+	                if (rj[k] == 0)
+	                    ri[k] = snap(ri[k], rows, edges[EDGE_LEFT]);
+	                else if (rj[k] == cols)
+	                    ri[k] = snap(ri[k], rows, edges[EDGE_RIGHT]);
+	            }
+
+	            for (k = 0;  k < 6;  k += 3)
+	                add_triangle(ri, rj, k);
+	        }
+	    }
+
+	    indices_changed = true;
+	    return new int[] { offset, indices.position() - offset };
+	}
+
+	// Append triangle k..k+2 unless snapping made it degenerate
+	void add_triangle(int[] ri, int[] rj, int k)
+	{
+	    int n;
+
+	    for (n = 0;  n < 3;  n++)
+	    {
+	        int m = k + (n + 1) % 3;
+	        if (ri[k + n] == ri[m] && rj[k + n] == rj[m])
+	            return;
+	    }
+
+	    if (indices.remaining() < 3)
+	    {
+	        IntBuffer larger = BufferUtils.createIntBuffer(indices.capacity() * 2);
+	        indices.flip();
+	        larger.put(indices);
+	        indices = larger;
+	    }
+
+	    for (n = 0;  n < 3;  n++)
+	        indices.put(ri[k + n] * size + rj[k + n]);
+	}
+
+	//========================================================================
+	// Drawing. The vertex array object of the map must be bound; the index
+	// buffer created here becomes its element array.
+	//========================================================================
+
+	void make_buffers()
+	{
+	    index_vbo = glGenBuffers();
+	    glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, index_vbo);
+	}
+
+	void draw()
+	{
+	    int pi, pj, p;
+	    int[] list;
+
+	    for (p = 0;  p < patches * patches;  p++)
+	        patch_list[p] = find_list(p / patches, p % patches);
+
+	    if (indices_changed)
+	    {
+	        IntBuffer used = indices.duplicate();
+	        used.flip();
+	        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, index_vbo);
+	        glBufferData(GL_ELEMENT_ARRAY_BUFFER, used, GL_STATIC_DRAW);
+	        indices_changed = false;
+	    }
+
+	    triangles = 0;
+	    for (pi = 0;  pi < patches;  pi++)
+	    {
+	        for (pj = 0;  pj < patches;  pj++)
+	        {
+	            list = patch_list[pi * patches + pj];
+	            glDrawElementsBaseVertex(GL_TRIANGLES, list[1], GL_UNSIGNED_INT, 4L * list[0],
+	                                     pi * PATCH_QUADS * size + pj * PATCH_QUADS);
+	            triangles += list[1] / 3;
+	        }
+	    }
+
+	    total_triangles += triangles;
+	    frames++;
+	}
+}
@@ -0,0 +1,71 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Sines and cosines of the angles that divide a full turn in equal steps
+//
+// The mesh generators only ever evaluate sin and cos at multiples of a
+// fixed step (the facets of a sphere, the segments of a torus, the teeth
+// of a gear), so each of them takes the values from the table of its
+// resolution instead of calling Math.sin and Math.cos for every vertex.
+// Tables are built on first use and shared by resolution. Angles that
+// fall halfway between steps, like the centers of segments, are taken
+// from the table of twice the resolution.
+//========================================================================
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class TrigTable {
+
+	private static final Map<Integer, TrigTable> tables = new HashMap<>();
+
+	// Steps per full turn
+	final int resolution;
+
+	private final double[] sin;
+	private final double[] cos;
+
+	private TrigTable(int resolution)
+	{
+	    double angle;
+
+	    this.resolution = resolution;
+	    sin = new double[resolution];
+	    cos = new double[resolution];
+
+	    for (int i = 0;  i < resolution;  i++)
+	    {
+	        angle = i * (2.0 * Math.PI) / resolution;
+	        sin[i] = Math.sin(angle);
+	        cos[i] = Math.cos(angle);
+	    }
+	}
+
+	// The table dividing a full turn in the given number of steps
+	static synchronized TrigTable of(int resolution)
+	{
+	    TrigTable table;
+
+	    if (resolution < 1)
+	        throw new IllegalArgumentException("Invalid resolution: " + resolution);
+
+	    table = tables.get(resolution);
+	    if (table == null)
+	    {
+	        table = new TrigTable(resolution);
+	        tables.put(resolution, table);
+	    }
+	    return table;
+	}
+
+	// Sine and cosine of step * 2 * PI / resolution, for any step
+	double sin(int step)
+	{
+	    return sin[Math.floorMod(step, resolution)];
+	}
+
+	double cos(int step)
+	{
+	    return cos[Math.floorMod(step, resolution)];
+	}
+}
@@ -11,11 +11,20 @@ package glfw.lwjgl.examples;
  *****************************************************************************/
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
 
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.GLFWCursorPosCallback;
 import org.lwjgl.glfw.GLFWFramebufferSizeCallback;
@@ -28,9 +37,13 @@ import glfw.lwjgl.tests.TestCommon;
 
 final class Wave extends TestCommon{
 
-	// Maximum delta T to allow for differential calculations
+	// Maximum delta T to allow for differential calculations, used as the
+	// fixed simulation time step
 	static final float MAX_DELTA_T = 0.01f;
 
+	// Simulation steps allowed per frame before time is dropped
+	static final int MAX_STEPS_PER_FRAME = 10;
+
 	// Animation speed (10.0 looks good)
 	static final float ANIMATION_SPEED = 10.0f;
 
@@ -40,25 +53,59 @@ final class Wave extends TestCommon{
 	static final DoubleBuffer cursorX = BufferUtils.createDoubleBuffer(1);
 	static final DoubleBuffer cursorY = BufferUtils.createDoubleBuffer(1);
 
-	static final class Vertex
-	{
-	    float x, y, z;
-	    float r, g, b;
-	};
-
-	private static final int GRIDW = 50;
-	private static final int GRIDH = 50;
-	private static final int VERTEXNUM = (GRIDW*GRIDH);
-	private static final int QUADW = (GRIDW - 1);
-	private static final int QUADH = (GRIDH - 1);
-	private static final int QUADNUM = (QUADW*QUADH);
-
-	static final int[] quad = new int[4 * QUADNUM];
-	static final Vertex[] vertex = new Vertex[VERTEXNUM];
-	
-	static final IntBuffer indexBuffer = BufferUtils.createIntBuffer(quad.length);
-	static final FloatBuffer vertexBuffer = BufferUtils.createFloatBuffer(vertex.length * 6);
-	
+	// Default and largest grid dimensions (override with -g)
+	static final int DEFAULT_GRID_SIZE = 50;
+	static final int MAX_GRID_SIZE = 4096;
+
+	// Grid dimensions, set by set_grid_size()
+	static int GRIDW;
+	static int GRIDH;
+	static int VERTEXNUM;
+	static int QUADW;
+	static int QUADH;
+	static int QUADNUM;
+
+	// Floats per vertex in vertexBuffer: x, y, r, g, b
+	static final int VERTEX_FLOATS = 5;
+
+	// The quads as one triangle strip (see GridMesh), uploaded once by
+	// make_mesh()
+	static IntBuffer indexBuffer;
+	static int index_count;
+
+	// Interleaved static attributes, one vertex per grid point in the same
+	// order as the solver arrays. Written once by init_vertices() and
+	// uploaded once by make_mesh().
+	static FloatBuffer vertexBuffer;
+
+	// Height of each vertex, the only attribute that changes between
+	// frames. Recomputed by adjust_grid() and streamed by draw_scene().
+	static FloatBuffer heightBuffer;
+
+	// The shader takes x and y from the fixed-function vertex array and z
+	// from the separate height attribute
+	static final String vertex_shader_text =
+	"#version 120\n"+
+	"attribute float height;\n"+
+	"\n"+
+	"void main()\n"+
+	"{\n"+
+	"    gl_FrontColor = gl_Color;\n"+
+	"    gl_Position = gl_ModelViewProjectionMatrix * vec4(gl_Vertex.xy, height, 1.0);\n"+
+	"}\n";
+
+	static final String fragment_shader_text =
+	"#version 120\n"+
+	"void main()\n"+
+	"{\n"+
+	"    gl_FragColor = gl_Color;\n"+
+	"}\n";
+
+	static int shader_program;
+	static int aloc_height;
+	static int vertex_vbo;
+	static int height_vbo;
+	static int index_vbo;
 
 	/* The grid will look like this:
 	 *
@@ -78,55 +125,107 @@ final class Wave extends TestCommon{
 	static void init_vertices()
 	{
 	    int x, y, p;
+	    float r;
 
 	    // Place the vertices in a grid
 	    for (y = 0;  y < GRIDH;  y++)
 	    {
 	        for (x = 0;  x < GRIDW;  x++)
 	        {
-	            p = y * GRIDW + x;
-	            if(vertex[p] == null)
-	            	vertex[p] = new Vertex();
-
-	            vertex[p].x = (float) (x - GRIDW / 2) / (float) (GRIDW / 2);
-	            vertex[p].y = (float) (y - GRIDH / 2) / (float) (GRIDH / 2);
-	            vertex[p].z = 0;
+	            p = VERTEX_FLOATS * (y * GRIDW + x);
 
 	            if ((x % 4 < 2) ^ (y % 4 < 2))
-	                vertex[p].r = 0.0f;
+	                r = 0.0f;
 	            else
-	                vertex[p].r = 1.0f;
+	                r = 1.0f;
 
-	            vertex[p].g = (float) y / (float) GRIDH;
-	            vertex[p].b = 1.f - ((float) x / (float) GRIDW + (float) y / (float) GRIDH) / 2.f;
+	            vertexBuffer.put(p + 0, (float) (x - GRIDW / 2) / (float) (GRIDW / 2));
+	            vertexBuffer.put(p + 1, (float) (y - GRIDH / 2) / (float) (GRIDH / 2));
+	            vertexBuffer.put(p + 2, r);
+	            vertexBuffer.put(p + 3, (float) y / (float) GRIDH);
+	            vertexBuffer.put(p + 4, 1.f - ((float) x / (float) GRIDW + (float) y / (float) GRIDH) / 2.f);
 	        }
 	    }
 
-	    for (y = 0;  y < QUADH;  y++)
-	    {
-	        for (x = 0;  x < QUADW;  x++)
-	        {
-	            p = 4 * (y * QUADW + x);
-
-	            quad[p + 0] = y       * GRIDW + x;     // Some point
-	            quad[p + 1] = y       * GRIDW + x + 1; // Neighbor at the right side
-	            quad[p + 2] = (y + 1) * GRIDW + x + 1; // Upper right neighbor
-	            quad[p + 3] = (y + 1) * GRIDW + x;     // Upper neighbor
-	        }
-	    }
-	    
-	    indexBuffer.put(quad).flip();
+	    indexBuffer.clear();
+	    GridMesh.make_strip(GRIDW, GRIDH, GridMesh.stripe_width(GridMesh.DEFAULT_CACHE_SIZE), indexBuffer);
+	    indexBuffer.flip();
 	}
 
 	static double dt;
-	static final double p[][] = new double[GRIDW][GRIDH];
-//	double vx[GRIDW][GRIDH], vy[GRIDW][GRIDH];
-//	double ax[GRIDW][GRIDH], ay[GRIDW][GRIDH];
-	
-	static final double[][] vx = new double[GRIDW][GRIDW];
-	static final double[][] vy = new double[GRIDW][GRIDW];
-	static final double[][] ax = new double[GRIDW][GRIDW];
-	static final double[][] ay = new double[GRIDW][GRIDW];
+
+	// Pressure and velocity of each grid point, stored row by row: the value
+	// of point (x, y) is at index y * GRIDW + x, the same index as its vertex.
+	static double[] p;
+	static double[] vx;
+	static double[] vy;
+
+	// Pressure before the last step, to interpolate the drawn heights
+	static double[] p_prev;
+
+	static {
+		set_grid_size(DEFAULT_GRID_SIZE, DEFAULT_GRID_SIZE);
+	}
+
+	//========================================================================
+	// Allocate the solver arrays and vertex/index buffers for a grid of
+	// width x height points
+	//========================================================================
+
+	static void set_grid_size(int width, int height)
+	{
+	    if (width < 2 || height < 2 || width > MAX_GRID_SIZE || height > MAX_GRID_SIZE)
+	        throw new IllegalArgumentException("Grid dimensions must be between 2 and " +
+	                                           MAX_GRID_SIZE + ": " + width + "x" + height);
+
+	    GRIDW = width;
+	    GRIDH = height;
+	    VERTEXNUM = GRIDW * GRIDH;
+	    QUADW = GRIDW - 1;
+	    QUADH = GRIDH - 1;
+	    QUADNUM = QUADW * QUADH;
+
+	    p = new double[VERTEXNUM];
+	    vx = new double[VERTEXNUM];
+	    vy = new double[VERTEXNUM];
+	    p_prev = new double[VERTEXNUM];
+
+	    index_count = GridMesh.strip_index_count(GRIDW, GRIDH,
+	                                             GridMesh.stripe_width(GridMesh.DEFAULT_CACHE_SIZE));
+	    indexBuffer = BufferUtils.createIntBuffer(index_count);
+	    vertexBuffer = BufferUtils.createFloatBuffer(VERTEX_FLOATS * VERTEXNUM);
+	    heightBuffer = BufferUtils.createFloatBuffer(VERTEXNUM);
+	}
+
+	//========================================================================
+	// Upload the static attributes and indices and allocate the height
+	// buffer. The array pointers and the index buffer stay bound for the
+	// rest of the run.
+	//========================================================================
+
+	static void make_mesh()
+	{
+	    final int stride = VERTEX_FLOATS * 4;
+
+	    vertex_vbo = glGenBuffers();
+	    glBindBuffer(GL_ARRAY_BUFFER, vertex_vbo);
+	    vertexBuffer.clear();
+	    glBufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
+	    glVertexPointer(2, GL_FLOAT, stride, 0);
+	    glColorPointer(3, GL_FLOAT, stride, 2 * 4);
+
+	    height_vbo = glGenBuffers();
+	    glBindBuffer(GL_ARRAY_BUFFER, height_vbo);
+	    glBufferData(GL_ARRAY_BUFFER, 4L * VERTEXNUM, GL_STREAM_DRAW);
+	    glEnableVertexAttribArray(aloc_height);
+	    glVertexAttribPointer(aloc_height, 1, GL_FLOAT, false, 0, 0);
+
+	    glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+	    index_vbo = glGenBuffers();
+	    glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, index_vbo);
+	    glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBuffer, GL_STATIC_DRAW);
+	}
 
 	//========================================================================
 	// Initialize grid
@@ -134,28 +233,31 @@ final class Wave extends TestCommon{
 
 	static void init_grid()
 	{
-	    int x, y;
+	    int x, y, pos;
 	    double dx, dy, d;
 
 	    for (y = 0; y < GRIDH;  y++)
 	    {
 	        for (x = 0; x < GRIDW;  x++)
 	        {
+	            pos = y * GRIDW + x;
 	            dx = (double) (x - GRIDW / 2);
 	            dy = (double) (y - GRIDH / 2);
 	            d = Math.sqrt(dx * dx + dy * dy);
 	            if (d < 0.1 * (double) (GRIDW / 2))
 	            {
 	                d = d * 10.0;
-	                p[x][y] = -cos(d * (Math.PI / (double)(GRIDW * 4))) * 100.0;
+	                p[pos] = -cos(d * (Math.PI / (double)(GRIDW * 4))) * 100.0;
 	            }
 	            else
-	                p[x][y] = 0.0;
+	                p[pos] = 0.0;
 
-	            vx[x][y] = 0.0;
-	            vy[x][y] = 0.0;
+	            vx[pos] = 0.0;
+	            vy[pos] = 0.0;
 	        }
 	    }
+
+	    System.arraycopy(p, 0, p_prev, 0, VERTEXNUM);
 	}
 
 
@@ -176,24 +278,16 @@ final class Wave extends TestCommon{
 	    // Rotate the view
 	    glRotatef(beta, 1.0f, 0.0f, 0.0f);
 	    glRotatef(alpha, 0.0f, 0.0f, 1.0f);
-	    
-	    vertexBuffer.clear();
-	    for(Vertex v: vertex){
-	    	vertexBuffer.put(v.x);
-	    	vertexBuffer.put(v.y);
-	    	vertexBuffer.put(v.z);
-	    	
-	    	vertexBuffer.put(v.r);
-	    	vertexBuffer.put(v.g);
-	    	vertexBuffer.put(v.b);
-	    }
-	    vertexBuffer.flip();
-	    
-	    glVertexPointer(3, GL_FLOAT, 24, vertexBuffer);
-	    vertexBuffer.position(3);
-	    glColorPointer(3, GL_FLOAT,24, vertexBuffer); // Pointer to the first color
 
-	    glDrawElements(GL_QUADS, indexBuffer);
+	    // Replace the heights, orphaning the previous storage so the upload
+	    // doesn't wait for the last frame to finish drawing
+	    glBindBuffer(GL_ARRAY_BUFFER, height_vbo);
+	    glBufferData(GL_ARRAY_BUFFER, 4L * VERTEXNUM, GL_STREAM_DRAW);
+	    heightBuffer.clear();
+	    glBufferSubData(GL_ARRAY_BUFFER, 0, heightBuffer);
+	    glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+	    glDrawElements(GL_TRIANGLE_STRIP, index_count, GL_UNSIGNED_INT, 0);
 
 	    glfwSwapBuffers(window);
 	}
@@ -231,62 +325,215 @@ final class Wave extends TestCommon{
 	static void adjust_grid()
 	{
 	    int pos;
-	    int x, y;
 
-	    for (y = 0; y < GRIDH;  y++)
+	    for (pos = 0;  pos < VERTEXNUM;  pos++)
+	        heightBuffer.put(pos, (float) (p[pos] * (1.0 / 50.0)));
+	}
+
+	// Same, for the state the given fraction of a step after the one
+	// before the last step
+	static void adjust_grid(double alpha)
+	{
+	    int pos;
+
+	    for (pos = 0;  pos < VERTEXNUM;  pos++)
+	        heightBuffer.put(pos, (float) ((p_prev[pos] + (p[pos] - p_prev[pos]) * alpha) * (1.0 / 50.0)));
+	}
+
+
+	//========================================================================
+	// Solver inner loops (see WaveKernel). The Vector API implementation is
+	// only present in builds made with the "vector" profile, so it is
+	// looked up by name.
+	//========================================================================
+
+	static final String VECTOR_KERNEL = "glfw.lwjgl.examples.VectorWaveKernel";
+
+	static WaveKernel kernel = new ScalarWaveKernel();
+
+	static void set_kernel(String name)
+	{
+	    if (name.equals("scalar"))
+	        kernel = new ScalarWaveKernel();
+	    else if (name.equals("vector"))
 	    {
-	        for (x = 0;  x < GRIDW;  x++)
-	        {
-	            pos = y * GRIDW + x;
-	            vertex[pos].z = (float) (p[x][y] * (1.0 / 50.0));
+	        try {
+	            kernel = (WaveKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+	        } catch (ReflectiveOperationException | LinkageError e) {
+	            fprintf("Vector kernel not available (%s), using the scalar one\n", e);
+	            kernel = new ScalarWaveKernel();
 	        }
 	    }
+	    else
+	        throw new IllegalArgumentException("Unknown kernel: " + name);
 	}
 
+	static void calc_speeds(int y0, int y1, double time_step)
+	{
+	    kernel.speeds(p, vx, vy, GRIDW, GRIDH, y0, y1, time_step);
+	}
+
+	static void calc_pressure(int y0, int y1, double time_step)
+	{
+	    kernel.pressure(p, vx, vy, GRIDW, GRIDH, y0, y1, time_step);
+	}
 
 	//========================================================================
 	// Calculate wave propagation
+	//
+	// On a single thread this is done in one pass over the rows: the
+	// velocities of a row, then its pressure. Row 0 and column 0 never get
+	// a pressure update, so the neighbors read across the wrap-around are
+	// the same ones a separate pass over the whole grid would see. The
+	// parallel solver does the same work in two phases over row bands and
+	// gives an identical result.
 	//========================================================================
 
 	static void calc_grid()
 	{
-	    int x, y, x2, y2;
+	    int y;
 	    double time_step = dt * ANIMATION_SPEED;
 
-	    // Compute accelerations
-	    for (x = 0;  x < GRIDW;  x++)
+	    if (solver != null)
 	    {
-	        x2 = (x + 1) % GRIDW;
-	        for(y = 0; y < GRIDH; y++)
-	            ax[x][y] = p[x][y] - p[x2][y];
+	        solver.step(time_step);
+	        return;
 	    }
 
 	    for (y = 0;  y < GRIDH;  y++)
 	    {
-	        y2 = (y + 1) % GRIDH;
-	        for(x = 0; x < GRIDW; x++)
-	            ay[x][y] = p[x][y] - p[x][y2];
+	        calc_speeds(y, y + 1, time_step);
+	        calc_pressure(y, y + 1, time_step);
 	    }
+	}
+
+	//========================================================================
+	// Parallel solver. The grid is split into one band of rows per thread.
+	// A step runs in two phases with a barrier in between, since the first
+	// row of a band needs the new velocities of the row below it, and the
+	// last row of a band needs the old pressure of the row above it:
+	//
+	//   1) Velocities (reading only pressure)
+	//   2) Pressure (reading only velocities)
+	//
+	// The calling thread works on band 0 and the workers on the others.
+	//========================================================================
+
+	static BandSolver solver;
+
+	static void set_solver_threads(int threads)
+	{
+	    if (threads < 1)
+	        throw new IllegalArgumentException("Thread count must be positive: " + threads);
+
+	    if (solver != null)
+	        solver.shutdown();
+
+	    solver = threads > 1 ? new BandSolver(threads) : null;
+	}
+
+	final static class BandSolver{
+		final int bands;
+		final CyclicBarrier barrier;
+		final Thread[] workers;
+
+		// Set by the calling thread before the start barrier of a step
+		double time_step;
+		boolean done;
+
+		BandSolver(int bands){
+			this.bands = bands;
+			barrier = new CyclicBarrier(bands);
+			workers = new Thread[bands - 1];
+
+			for (int i = 0; i < workers.length; i++)
+			{
+				final int band = i + 1;
+				workers[i] = new Thread(new Runnable() {
+					public void run() {
+						worker_main(band);
+					}
+				}, "wave-solver-" + band);
+				workers[i].setDaemon(true);
+				workers[i].start();
+			}
+		}
+
+		int band_start(int band){
+			return (int) ((long) GRIDH * band / bands);
+		}
+
+		void run_band(int band){
+			calc_speeds(band_start(band), band_start(band + 1), time_step);
+			await();
+			calc_pressure(band_start(band), band_start(band + 1), time_step);
+			await();
+		}
+
+		void worker_main(int band){
+			for (;;)
+			{
+				await();
+				if (done)
+					return;
+
+				run_band(band);
+			}
+		}
+
+		void step(double time_step){
+			this.time_step = time_step;
+			await();
+			run_band(0);
+		}
+
+		void shutdown(){
+			done = true;
+			await();
+		}
+
+		void await(){
+			try {
+				barrier.await();
+			} catch (InterruptedException | BrokenBarrierException e) {
+				throw new IllegalStateException("Wave solver barrier broken", e);
+			}
+		}
+	}
+
+	//========================================================================
+	// Print usage information
+	//========================================================================
 
-	    // Compute speeds
-	    for (x = 0;  x < GRIDW;  x++)
+	static void usage()
+	{
+	    printf("Usage: wave [-h] [-g size|widthxheight] [-k scalar|vector] [-t threads]\n");
+	    printf("Options:\n");
+	    printf(" -g   Grid dimensions in points, up to %d (default is %dx%d)\n",
+	           MAX_GRID_SIZE, DEFAULT_GRID_SIZE, DEFAULT_GRID_SIZE);
+	    printf(" -h   Display this help\n");
+	    printf(" -k   Solver loops: plain Java or Vector API (default is scalar;\n");
+	    printf("      vector needs the \"vector\" build and --add-modules jdk.incubator.vector)\n");
+	    printf(" -t   Solve the wave equation on this many threads (default is one)\n");
+	}
+
+	//========================================================================
+	// Parse a grid size given as "size" or "widthxheight"
+	//========================================================================
+
+	static void parse_grid_size(String value)
+	{
+	    int sep = value.indexOf('x');
+
+	    if (sep < 0)
 	    {
-	        for (y = 0;  y < GRIDH;  y++)
-	        {
-	            vx[x][y] = vx[x][y] + ax[x][y] * time_step;
-	            vy[x][y] = vy[x][y] + ay[x][y] * time_step;
-	        }
+	        int size = Integer.parseInt(value);
+	        set_grid_size(size, size);
 	    }
-
-	    // Compute pressure
-	    for (x = 1;  x < GRIDW;  x++)
+	    else
 	    {
-	        x2 = x - 1;
-	        for (y = 1;  y < GRIDH;  y++)
-	        {
-	            y2 = y - 1;
-	            p[x][y] = p[x][y] + (vx[x2][y] - vx[x][y] + vy[x][y2] - vy[x][y]) * time_step;
-	        }
+	        set_grid_size(Integer.parseInt(value.substring(0, sep)),
+	                      Integer.parseInt(value.substring(sep + 1)));
 	    }
 	}
 
@@ -409,11 +656,39 @@ final class Wave extends TestCommon{
 	public static void main(String[] args)
 	{
 	    long window;
-	    double t, dt_total, t_old;
+	    double t, t_old;
 	    int width, height;
+	    int i, steps;
+	    FixedTimestep timestep;
 
 //	    glfwSetErrorCallback(safe(Callbacks.errorCallbackPrint()));
 
+	    try {
+			Options options = new Options();
+			options.addOption("g", true, "Grid dimensions");
+			options.addOption("h", "Display this help");
+			options.addOption("k", true, "Solver kernel (scalar or vector)");
+			options.addOption("t", true, "Number of solver threads");
+
+			CommandLineParser parser = new DefaultParser();
+			CommandLine cmd = parser.parse(options, args);
+
+			if(cmd.hasOption("h")) {
+				usage();
+				exit(EXIT_SUCCESS);
+			}
+			if(cmd.hasOption("g"))
+				parse_grid_size(cmd.getOptionValue("g"));
+			if(cmd.hasOption("k"))
+				set_kernel(cmd.getOptionValue("k"));
+			if(cmd.hasOption("t"))
+				set_solver_threads(Integer.parseInt(cmd.getOptionValue("t")));
+		} catch (ParseException | IllegalArgumentException e) {
+			fprintf("%s\n", e.getMessage());
+			usage();
+			exit(EXIT_FAILURE);
+		}
+
 	    if (glfwInit() == 0)
 	        exit(EXIT_FAILURE);
 
@@ -461,33 +736,49 @@ final class Wave extends TestCommon{
 	    // Initialize OpenGL
 	    init_opengl();
 
+	    shader_program = Shaders.make_shader_program(vertex_shader_text, fragment_shader_text);
+	    if (shader_program == 0)
+	    {
+	        glfwTerminate();
+	        exit(EXIT_FAILURE);
+	    }
+
+	    glUseProgram(shader_program);
+	    aloc_height = glGetAttribLocation(shader_program, "height");
+
 	    // Initialize simulation
 	    init_vertices();
+	    make_mesh();
+
+	    printf("Grid %dx%d: %d strip indices, %.3f vertices transformed per triangle\n",
+	           GRIDW, GRIDH, index_count,
+	           (double) GridMesh.fifo_cache_misses(indexBuffer, index_count, GridMesh.DEFAULT_CACHE_SIZE) /
+	           (2.0 * QUADNUM));
 	    init_grid();
 	    adjust_grid();
 
 	    // Initialize timer
+	    timestep = new FixedTimestep(MAX_DELTA_T, MAX_STEPS_PER_FRAME);
+	    dt = MAX_DELTA_T;
 	    t_old = glfwGetTime() - 0.01;
 
 	    while (glfwWindowShouldClose(window) == 0)
 	    {
 	        t = glfwGetTime();
-	        dt_total = t - t_old;
+	        steps = timestep.advance(t - t_old);
 	        t_old = t;
 
-	        // Safety - iterate if dt_total is too large
-	        while (dt_total > 0.f)
+	        for (i = 0;  i < steps;  i++)
 	        {
-	            // Select iteration time step
-	            dt = dt_total > MAX_DELTA_T ? MAX_DELTA_T : dt_total;
-	            dt_total -= dt;
+	            if (i == steps - 1)
+	                System.arraycopy(p, 0, p_prev, 0, VERTEXNUM);
 
 	            // Calculate wave propagation
 	            calc_grid();
 	        }
 
 	        // Compute height of each vertex
-	        adjust_grid();
+	        adjust_grid(timestep.alpha());
 
 	        // Draw wave grid to OpenGL display
 	        draw_scene(window);
@@ -495,6 +786,9 @@ final class Wave extends TestCommon{
 	        glfwPollEvents();
 	    }
 
+	    printf("%d simulation steps, %.3f s of simulation time dropped\n",
+	           timestep.steps, timestep.dropped);
+
 	    exit(EXIT_SUCCESS);
 	}
 }
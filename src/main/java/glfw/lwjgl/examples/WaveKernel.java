@@ -0,0 +1,19 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Inner loops of the Wave solver. The grid arrays are stored row by row
+// (point (x, y) at index y * width + x), and neighbors wrap around at the
+// grid edges. Every implementation must give bitwise identical results.
+//========================================================================
+
+interface WaveKernel {
+
+	// Update the velocities of rows [y0, y1) from the pressure gradient
+	void speeds(double[] p, double[] vx, double[] vy, int width, int height,
+	            int y0, int y1, double time_step);
+
+	// Update the pressure of rows [y0, y1) from the velocity divergence.
+	// Row 0 and column 0 are never updated.
+	void pressure(double[] p, double[] vx, double[] vy, int width, int height,
+	              int y0, int y1, double time_step);
+}
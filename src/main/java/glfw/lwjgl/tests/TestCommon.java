@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.lwjgl.BufferUtils;
 
@@ -14,6 +15,10 @@ public class TestCommon {
 	
 	protected static final long NULL = 0;
 
+	protected static final int RAND_MAX = Short.MAX_VALUE;
+
+	private static final Random random = new Random();
+
 	protected static final List<Object> callbacks = new ArrayList<>();
 	
 	protected static final IntBuffer x_buf = BufferUtils.createIntBuffer(1);
@@ -81,8 +86,13 @@ public class TestCommon {
 		Project.gluLookAt(eyex, eyey, eyez, centerx, centery, centerz, upx, upy, upz);
 	}
 	
+	// A number in [0, RAND_MAX], from the generator seeded by srand()
 	protected static int rand(){
-		return (int) (Math.random() * Short.MAX_VALUE);
+		return random.nextInt(RAND_MAX + 1);
+	}
+
+	public static void srand(long seed){
+		random.setSeed(seed);
 	}
 	
 	public static double cos(double angle){
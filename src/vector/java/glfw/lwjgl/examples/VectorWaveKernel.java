@@ -0,0 +1,86 @@
+package glfw.lwjgl.examples;
+
+//========================================================================
+// Wave solver loops written with the incubating Vector API
+//
+// This file is only compiled with the "vector" Maven profile (JDK 16 or
+// later) and must be run with --add-modules jdk.incubator.vector. Wave
+// loads it by name, so the rest of the examples build and run without it.
+//
+// The lanes perform exactly the operations of ScalarWaveKernel, in the
+// same order and without fused multiply-adds, so the results are bitwise
+// identical to it.
+//========================================================================
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorWaveKernel implements WaveKernel {
+
+	static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	public void speeds(double[] p, double[] vx, double[] vy, int width, int height,
+	                   int y0, int y1, double time_step)
+	{
+	    int x, y, row, up, bound;
+
+	    for (y = y0;  y < y1;  y++)
+	    {
+	        row = y * width;
+	        up = ((y + 1) % height) * width;
+
+	        // All but the last column, whose right neighbor wraps around
+	        bound = SPECIES.loopBound(width - 1);
+	        for (x = 0;  x < bound;  x += SPECIES.length())
+	        {
+	            DoubleVector pc = DoubleVector.fromArray(SPECIES, p, row + x);
+	            DoubleVector pr = DoubleVector.fromArray(SPECIES, p, row + x + 1);
+	            DoubleVector pu = DoubleVector.fromArray(SPECIES, p, up + x);
+
+	            DoubleVector.fromArray(SPECIES, vx, row + x)
+	                        .add(pc.sub(pr).mul(time_step))
+	                        .intoArray(vx, row + x);
+	            DoubleVector.fromArray(SPECIES, vy, row + x)
+	                        .add(pc.sub(pu).mul(time_step))
+	                        .intoArray(vy, row + x);
+	        }
+	        for (;  x < width - 1;  x++)
+	        {
+	            vx[row + x] += (p[row + x] - p[row + x + 1]) * time_step;
+	            vy[row + x] += (p[row + x] - p[up + x]) * time_step;
+	        }
+	        vx[row + x] += (p[row + x] - p[row]) * time_step;
+	        vy[row + x] += (p[row + x] - p[up + x]) * time_step;
+	    }
+	}
+
+	public void pressure(double[] p, double[] vx, double[] vy, int width, int height,
+	                     int y0, int y1, double time_step)
+	{
+	    int x, y, row, bound;
+
+	    for (y = Math.max(y0, 1);  y < y1;  y++)
+	    {
+	        row = y * width;
+
+	        // Columns 1 to width - 1
+	        bound = 1 + SPECIES.loopBound(width - 1);
+	        for (x = 1;  x < bound;  x += SPECIES.length())
+	        {
+	            DoubleVector v = DoubleVector.fromArray(SPECIES, vx, row + x - 1)
+	                                         .sub(DoubleVector.fromArray(SPECIES, vx, row + x))
+	                                         .add(DoubleVector.fromArray(SPECIES, vy, row + x - width))
+	                                         .sub(DoubleVector.fromArray(SPECIES, vy, row + x));
+
+	            DoubleVector.fromArray(SPECIES, p, row + x)
+	                        .add(v.mul(time_step))
+	                        .intoArray(p, row + x);
+	        }
+	        for (;  x < width;  x++)
+	        {
+	            p[row + x] += (vx[row + x - 1] - vx[row + x] +
+	                           vy[row + x - width] - vy[row + x]) * time_step;
+	        }
+	    }
+	}
+}